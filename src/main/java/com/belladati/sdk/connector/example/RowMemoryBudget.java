@@ -0,0 +1,312 @@
+package com.belladati.sdk.connector.example;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Budget of memory used by rows in flight of all imports, i.e. rows buffered by JDBC drivers, generated rows not yet
+ * consumed and batches of rows encoded into direct buffers by parallel database imports. Usage counts rows held on
+ * the heap and in direct buffers alike, so the budget caps the total memory of rows in flight even though direct
+ * buffers are limited separately by {@code -XX:MaxDirectMemorySize}. Every import reports estimated size of its rows
+ * through its own {@link Account}. When the budget is exceeded, imports are slowed down instead of failed: database
+ * imports fetch smaller batches and producers pause before the next batch until other imports release memory.
+ * @author Lubomir Elko
+ */
+public class RowMemoryBudget {
+	private final static Log log = LogFactory.getLog(RowMemoryBudget.class);
+
+	/** Default budget in bytes, a quarter of the maximal heap size unless set by system property **/
+	public static final long DEFAULT_MAX_BYTES = Long.getLong("belladati.connector.memory.budget", Runtime.getRuntime()
+		.maxMemory() / 4);
+
+	/** Budget shared by all data providers **/
+	private static final RowMemoryBudget DEFAULT = new RowMemoryBudget(DEFAULT_MAX_BYTES);
+
+	/** Estimated size of row object and string object without their arrays **/
+	private static final int ROW_OVERHEAD = 24, STRING_OVERHEAD = 24;
+
+	/** Estimated size of array header **/
+	private static final int ARRAY_HEADER = 16;
+
+	/** Maximal number of bytes held by all accounts **/
+	private final long maxBytes;
+
+	/** Number of bytes held by all accounts, on the heap or in direct buffers **/
+	private long usedBytes;
+
+	/** Open accounts in order of opening **/
+	private final Set<Account> accounts = new LinkedHashSet<Account>();
+
+	/** Longest time in milliseconds that a producer waits for memory before it continues over the budget **/
+	private volatile long maxPauseMillis = 1000;
+
+	/**
+	 * Creates budget with the given size.
+	 * @param maxBytes Maximal number of bytes held by rows in flight of all imports
+	 */
+	public RowMemoryBudget(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns budget shared by all data providers. Its size is set by system property
+	 * {@code belladati.connector.memory.budget} in bytes.
+	 * @return Shared budget
+	 */
+	public static RowMemoryBudget getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Opens account of one import. It must be closed when the import ends.
+	 * @param name Name of the import shown in usage reports
+	 * @return Account of the import
+	 */
+	public synchronized Account open(String name) {
+		Account account = new Account(name);
+		accounts.add(account);
+		return account;
+	}
+
+	/**
+	 * Returns estimated heap size of a row with the given values, including the row object itself.
+	 * @param values Values of the row
+	 * @return Estimated number of bytes
+	 */
+	public static long estimateRowBytes(String[] values) {
+		if (values == null) {
+			return ROW_OVERHEAD;
+		}
+		long bytes = ROW_OVERHEAD + align(ARRAY_HEADER + 4L * values.length);
+		for (String value : values) {
+			if (value != null) {
+				// two bytes per character, strings of newer JVMs may be smaller
+				bytes += STRING_OVERHEAD + align(ARRAY_HEADER + 2L * value.length());
+			}
+		}
+		return bytes;
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * Returns size of the budget.
+	 * @return Maximal number of bytes held by rows in flight of all imports
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns number of bytes currently held by all imports, it may exceed the budget while producers continue after
+	 * their longest pause.
+	 * @return Estimated bytes of rows in flight on the heap and in direct buffers
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * Returns longest time that a producer waits for memory before it continues over the budget.
+	 * @return Pause in milliseconds
+	 */
+	public long getMaxPauseMillis() {
+		return maxPauseMillis;
+	}
+
+	/**
+	 * Sets longest time that a producer waits for memory before it continues over the budget. Longer pauses keep the
+	 * usage closer to the budget, shorter pauses keep imports moving when the budget is too small.
+	 * @param maxPauseMillis Pause in milliseconds, {@code 0} never pauses producers
+	 */
+	public void setMaxPauseMillis(long maxPauseMillis) {
+		this.maxPauseMillis = maxPauseMillis;
+	}
+
+	/**
+	 * Returns accounts of all running imports with their current usage.
+	 * @return Copy of the open accounts
+	 */
+	public synchronized List<Account> getAccounts() {
+		return new ArrayList<Account>(accounts);
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder(String.format(Locale.ENGLISH, "RowMemoryBudget[used=%.1f MB, max=%.1f MB",
+			usedBytes / 1048576d, maxBytes / 1048576d));
+		for (Account account : accounts) {
+			sb.append(", ").append(account);
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Memory held by rows in flight of one import.
+	 * @author Lubomir Elko
+	 */
+	public class Account implements Closeable {
+
+		/** Name of the import **/
+		private final String name;
+
+		/** Number of bytes held by the import **/
+		private long bytes;
+
+		/** Total time in nanoseconds that the import was paused waiting for memory **/
+		private long pausedNanos;
+
+		/** Flag if the account has been closed **/
+		private boolean closed;
+
+		private Account(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Returns number of bytes that this import can hold without exceeding the budget.
+		 * @return Available bytes, at least the bytes already held
+		 */
+		public long getAvailableBytes() {
+			synchronized (RowMemoryBudget.this) {
+				return Math.max(bytes, maxBytes - (usedBytes - bytes));
+			}
+		}
+
+		/**
+		 * Sets number of bytes held by this import. When the new size doesn't fit into the budget, the calling producer
+		 * waits until other imports release memory, at most {@link RowMemoryBudget#getMaxPauseMillis()}, and then
+		 * continues over the budget. An import that is the only one holding memory never waits.
+		 * @param newBytes Number of bytes held by the import
+		 * @return {@code true} if the producer has been paused
+		 */
+		public boolean acquire(long newBytes) {
+			return acquire(newBytes, false);
+		}
+
+		/**
+		 * Adds the given number of bytes to the bytes held by this import, e.g. by one of several producers of the import.
+		 * The calling producer waits in the same way as by {@link #acquire(long)}.
+		 * @param moreBytes Number of bytes to add
+		 * @return {@code true} if the producer has been paused
+		 */
+		public boolean reserve(long moreBytes) {
+			return acquire(moreBytes, true);
+		}
+
+		/**
+		 * Removes the given number of bytes from the bytes held by this import, e.g. when rows of a producer have been
+		 * consumed.
+		 * @param lessBytes Number of bytes to remove
+		 */
+		public void release(long lessBytes) {
+			synchronized (RowMemoryBudget.this) {
+				update(Math.max(0, bytes - lessBytes));
+			}
+		}
+
+		private boolean acquire(long amount, boolean relative) {
+			synchronized (RowMemoryBudget.this) {
+				final long start = System.nanoTime();
+				final long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxPauseMillis);
+				boolean paused = false;
+				while (!closed && usedBytes - bytes > 0 && usedBytes + (relative ? amount : amount - bytes) > maxBytes) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						log.debug("Import " + name + " continues over memory budget: " + RowMemoryBudget.this);
+						break;
+					}
+					paused = true;
+					try {
+						TimeUnit.NANOSECONDS.timedWait(RowMemoryBudget.this, remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+				if (paused) {
+					pausedNanos += System.nanoTime() - start;
+				}
+				update(relative ? bytes + amount : amount);
+				return paused;
+			}
+		}
+
+		/**
+		 * Sets number of bytes held by this import without waiting.
+		 * @param newBytes Number of bytes held by the import
+		 */
+		public void update(long newBytes) {
+			synchronized (RowMemoryBudget.this) {
+				if (closed) {
+					return;
+				}
+				usedBytes += newBytes - bytes;
+				if (newBytes < bytes) {
+					RowMemoryBudget.this.notifyAll();
+				}
+				bytes = newBytes;
+			}
+		}
+
+		/**
+		 * Returns name of the import shown in usage reports.
+		 * @return Name of the import
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns number of bytes currently held by this import.
+		 * @return Estimated bytes of rows in flight of the import
+		 */
+		public long getBytes() {
+			synchronized (RowMemoryBudget.this) {
+				return bytes;
+			}
+		}
+
+		/**
+		 * Returns total time that producers of this import were paused waiting for memory.
+		 * @return Paused time in milliseconds
+		 */
+		public long getPausedMillis() {
+			synchronized (RowMemoryBudget.this) {
+				return TimeUnit.NANOSECONDS.toMillis(pausedNanos);
+			}
+		}
+
+		/**
+		 * Releases all memory held by this import.
+		 */
+		@Override
+		public void close() {
+			synchronized (RowMemoryBudget.this) {
+				update(0);
+				closed = true;
+				accounts.remove(this);
+			}
+		}
+
+		@Override
+		public String toString() {
+			synchronized (RowMemoryBudget.this) {
+				return String.format(Locale.ENGLISH, "%s=%.1f MB (paused %d ms)", name, bytes / 1048576d,
+					TimeUnit.NANOSECONDS.toMillis(pausedNanos));
+			}
+		}
+
+	}
+
+}
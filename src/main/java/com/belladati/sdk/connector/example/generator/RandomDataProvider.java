@@ -17,6 +17,7 @@ import com.belladati.sdk.connector.PropertyValueApi.BooleanValue;
 import com.belladati.sdk.connector.PropertyValueApi.IntegerValue;
 import com.belladati.sdk.connector.PropertyValueApi.StringValue;
 import com.belladati.sdk.connector.RowApi;
+import com.belladati.sdk.connector.example.RowMemoryBudget;
 
 /**
  * Example implementation of {@link DataProviderApi}. It generates random values based on the configuration.
@@ -25,6 +26,13 @@ import com.belladati.sdk.connector.RowApi;
 public class RandomDataProvider extends DataProviderApi<RandomRows> {
 	private static final Log log = LogFactory.getLog(RandomDataProvider.class);
 
+	/** Budget of memory used by generated rows or {@code null} if memory is not limited **/
+	private RowMemoryBudget memoryBudget = RowMemoryBudget.getDefault();
+
+	/** Cache of materialized datasets replayed by imports or {@code null} if imports generate new values **/
+	private RandomDatasetCache datasetCache = RandomDatasetCache.DEFAULT_ENABLED ? RandomDatasetCache.getDefault()
+		: null;
+
 	/**
 	 * Creates data provider that will generate random values based on the configuration.
 	 * @param properties Data provider configuration
@@ -62,7 +70,11 @@ public class RandomDataProvider extends DataProviderApi<RandomRows> {
 	@Override
 	public RandomRows provideImportData(ProgressBarApi progressBar) {
 		log.info("Providing import data: progressBar=" + progressBar);
-		return new RandomRows(properties, true, progressBar);
+		RandomRows rows = new RandomRows(properties, getDataset(), true, -1, progressBar);
+		if (memoryBudget != null) {
+			rows.setMemoryAccount(memoryBudget.open("Random import"));
+		}
+		return rows;
 	}
 
 	@Override
@@ -106,4 +118,53 @@ public class RandomDataProvider extends DataProviderApi<RandomRows> {
 		return errors;
 	}
 
+	/**
+	 * Returns materialized dataset of the current configuration, it is generated by the first import.
+	 * @return Dataset or {@code null} if values should be generated
+	 */
+	private RandomDataset getDataset() {
+		final RandomDatasetCache cache = datasetCache;
+		if (cache != null) {
+			try {
+				return cache.getDataset(properties);
+			} catch (IllegalStateException e) {
+				log.warn("Dataset is not available, generating new values", e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns budget of memory used by generated rows.
+	 * @return Memory budget or {@code null} if memory is not limited
+	 */
+	public RowMemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Sets budget of memory used by generated rows, the budget shared by all data providers is used by default.
+	 * @param memoryBudget Memory budget or {@code null} if memory is not limited
+	 */
+	public void setMemoryBudget(RowMemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Returns cache of materialized datasets.
+	 * @return Dataset cache or {@code null} if imports generate new values
+	 */
+	public RandomDatasetCache getDatasetCache() {
+		return datasetCache;
+	}
+
+	/**
+	 * Sets cache of materialized datasets, so that all imports with the same configuration replay exactly the same
+	 * rows. It is disabled by default unless system property {@code belladati.connector.dataset.enabled} is set.
+	 * @param datasetCache Dataset cache or {@code null} if imports should generate new values
+	 */
+	public void setDatasetCache(RandomDatasetCache datasetCache) {
+		this.datasetCache = datasetCache;
+	}
+
 }
@@ -0,0 +1,306 @@
+package com.belladati.sdk.connector.example.generator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.belladati.sdk.connector.RowApi;
+
+/**
+ * Rows materialized in a local binary file, so that exactly the same dataset can be replayed by more imports. The file
+ * is read through memory-mapped I/O and values are only decoded from UTF-8, there is nothing else to parse.
+ * <p>
+ * The file starts with a header containing format version, key of the configuration and column names. Rows follow,
+ * each one prefixed by its length and containing length-prefixed values. The file ends with offsets of every
+ * {@link #BLOCK_ROWS}th row, so that reading can start at any row, followed by row count, block count and the magic
+ * number again to detect truncated files. All numbers are big-endian.
+ * @author Lubomir Elko
+ */
+public class RandomDataset {
+
+	/** First and last 4 bytes of the file **/
+	private static final int MAGIC = 0x42445244;
+
+	/** Version of the file format **/
+	private static final int VERSION = 1;
+
+	/** Number of rows between two entries of the index **/
+	static final int BLOCK_ROWS = 1024;
+
+	/** Length stored instead of {@code null} value **/
+	private static final int NULL_LENGTH = -1;
+
+	/** Size of the file end: row count, block count and magic number **/
+	private static final int TRAILER_BYTES = 12;
+
+	/** Largest file that can be mapped at once **/
+	public static final long MAX_FILE_BYTES = Integer.MAX_VALUE;
+
+	/** Dataset file **/
+	private final File file;
+
+	/** Key of the configuration that generated the rows **/
+	private final String key;
+
+	/** Column names **/
+	private final String[] columns;
+
+	/** Number of rows **/
+	private final int rowCount;
+
+	/** Offsets of every {@link #BLOCK_ROWS}th row **/
+	private final int[] blockOffsets;
+
+	/** Content of the whole file, it is only read through duplicates **/
+	private final ByteBuffer buffer;
+
+	private RandomDataset(File file, String key, String[] columns, int rowCount, int[] blockOffsets, ByteBuffer buffer) {
+		this.file = file;
+		this.key = key;
+		this.columns = columns;
+		this.rowCount = rowCount;
+		this.blockOffsets = blockOffsets;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Maps an existing dataset file into memory.
+	 * @param file Dataset file
+	 * @return Dataset ready to be replayed
+	 * @throws IOException if the file cannot be read or it isn't a complete dataset
+	 */
+	public static RandomDataset open(File file) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size < 8 + TRAILER_BYTES || size > MAX_FILE_BYTES) {
+				throw new IOException("Invalid size of dataset " + file + ": " + size);
+			}
+			// the mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		final int size = buffer.capacity();
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(size - 4) != MAGIC) {
+			throw new IOException("Incomplete dataset " + file);
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported version of dataset " + file + ": " + buffer.getInt(4));
+		}
+		try {
+			final int rowCount = buffer.getInt(size - TRAILER_BYTES);
+			final int blockCount = buffer.getInt(size - TRAILER_BYTES + 4);
+			int[] blockOffsets = new int[blockCount];
+			ByteBuffer index = buffer.duplicate();
+			index.position(size - TRAILER_BYTES - 4 * blockCount);
+			for (int block = 0; block < blockCount; block++) {
+				blockOffsets[block] = index.getInt();
+			}
+
+			ByteBuffer header = buffer.duplicate();
+			header.position(8);
+			String key = readString(header);
+			String[] columns = new String[header.getInt()];
+			for (int column = 0; column < columns.length; column++) {
+				columns[column] = readString(header);
+			}
+			return new RandomDataset(file, key, columns, rowCount, blockOffsets, buffer);
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupted dataset " + file, e);
+		}
+	}
+
+	/**
+	 * Writes the given rows into a new dataset file. The file is written under a temporary name and renamed when it is
+	 * complete, so that readers never see a partial dataset.
+	 * @param file Dataset file, an existing file is replaced
+	 * @param key Key of the configuration that generated the rows
+	 * @param columns Column names
+	 * @param rows Rows to write
+	 * @param maxBytes Maximal size of the file
+	 * @return Written dataset or {@code null} if the rows don't fit into the maximal size
+	 * @throws IOException if the file cannot be written
+	 */
+	public static RandomDataset create(File file, String key, String[] columns, Iterator<? extends RowApi> rows,
+		long maxBytes) throws IOException {
+		final long limit = Math.min(maxBytes, MAX_FILE_BYTES);
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+		boolean complete = false;
+		try {
+			List<Integer> blockOffsets = new ArrayList<Integer>();
+			int rowCount = 0;
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary),
+				65536))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				writeString(out, key);
+				out.writeInt(columns.length);
+				for (String column : columns) {
+					writeString(out, column);
+				}
+				byte[][] values = new byte[columns.length][];
+				while (rows.hasNext()) {
+					if (rowCount % BLOCK_ROWS == 0) {
+						blockOffsets.add(out.size());
+					}
+					int length = 0;
+					RowApi row = rows.next();
+					for (int column = 0; column < columns.length; column++) {
+						String value = row.getValue(column);
+						values[column] = value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+						length += 4 + (value != null ? values[column].length : 0);
+					}
+					if (out.size() + 4L + length + 4L * (blockOffsets.size() + 1) + TRAILER_BYTES > limit) {
+						return null;
+					}
+					out.writeInt(length);
+					for (byte[] value : values) {
+						out.writeInt(value != null ? value.length : NULL_LENGTH);
+						if (value != null) {
+							out.write(value);
+						}
+					}
+					rowCount++;
+				}
+				for (int offset : blockOffsets) {
+					out.writeInt(offset);
+				}
+				out.writeInt(rowCount);
+				out.writeInt(blockOffsets.size());
+				out.writeInt(MAGIC);
+			}
+			try {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			complete = true;
+		} finally {
+			if (!complete) {
+				temporary.delete();
+			}
+		}
+		return open(file);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Opens cursor reading rows from the given one. Every cursor has its own position, so more cursors can read the
+	 * dataset in parallel.
+	 * @param index Index of the first row
+	 * @return Cursor over the rows
+	 */
+	public Cursor openCursor(int index) {
+		return new Cursor(index);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String[] getColumns() {
+		return columns.clone();
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public long getSizeBytes() {
+		return buffer.capacity();
+	}
+
+	@Override
+	public String toString() {
+		return "RandomDataset[file=" + file + ", rows=" + rowCount + ", bytes=" + buffer.capacity() + "]";
+	}
+
+	/**
+	 * Sequential reader of rows. It isn't thread-safe.
+	 * @author Lubomir Elko
+	 */
+	public class Cursor {
+
+		/** View of the file with position of the next row **/
+		private final ByteBuffer rows = buffer.duplicate();
+
+		/** Index of the next row **/
+		private int index;
+
+		/** Bytes of the current row, reused for all rows **/
+		private byte[] bytes = new byte[256];
+
+		private Cursor(int index) {
+			this.index = Math.min(index, rowCount);
+			if (this.index < rowCount) {
+				rows.position(blockOffsets[this.index / BLOCK_ROWS]);
+				for (int skipped = this.index % BLOCK_ROWS; skipped > 0; skipped--) {
+					rows.position(rows.position() + 4 + rows.getInt(rows.position()));
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			return index < rowCount;
+		}
+
+		/**
+		 * Reads values of the next row.
+		 * @return Array containing values of the row
+		 */
+		public String[] next() {
+			if (index >= rowCount) {
+				throw new NoSuchElementException();
+			}
+			final int length = rows.getInt();
+			if (bytes.length < length) {
+				bytes = new byte[Math.max(length, 2 * bytes.length)];
+			}
+			rows.get(bytes, 0, length);
+			String[] values = new String[columns.length];
+			int position = 0;
+			for (int column = 0; column < values.length; column++) {
+				final int valueLength = (bytes[position] & 0xFF) << 24 | (bytes[position + 1] & 0xFF) << 16
+					| (bytes[position + 2] & 0xFF) << 8 | (bytes[position + 3] & 0xFF);
+				position += 4;
+				if (valueLength != NULL_LENGTH) {
+					values[column] = new String(bytes, position, valueLength, StandardCharsets.UTF_8);
+					position += valueLength;
+				}
+			}
+			index++;
+			return values;
+		}
+
+	}
+
+}
@@ -0,0 +1,369 @@
+package com.belladati.sdk.connector.example.generator;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.belladati.sdk.connector.ConnectorUtils;
+import com.belladati.sdk.connector.PropertyValueApi;
+
+/**
+ * Local cache of {@link RandomDataset}s keyed by the data provider configuration. A dataset is generated once, when
+ * it is requested for the first time, and all later imports with the same configuration replay it. Changed
+ * configuration has a different key, so its dataset is generated again, while datasets of old configurations are
+ * removed when the cache exceeds its size, least recently used first.
+ * @author Lubomir Elko
+ */
+public class RandomDatasetCache {
+	private static final Log log = LogFactory.getLog(RandomDatasetCache.class);
+
+	/** Flag if data providers use the default cache, set by system property **/
+	public static final boolean DEFAULT_ENABLED = Boolean.getBoolean("belladati.connector.dataset.enabled");
+
+	/** Default directory of dataset files **/
+	public static final File DEFAULT_DIRECTORY = new File(System.getProperty("belladati.connector.dataset.dir",
+		new File(System.getProperty("java.io.tmpdir"), "belladati-datasets").getPath()));
+
+	/** Default maximal size of one dataset file in bytes **/
+	public static final long DEFAULT_MAX_DATASET_BYTES = Long.getLong("belladati.connector.dataset.maxBytes",
+		1L << 30);
+
+	/** Default maximal size of all dataset files in bytes **/
+	public static final long DEFAULT_MAX_CACHE_BYTES = Long.getLong("belladati.connector.dataset.maxCacheBytes",
+		4L << 30);
+
+	/** Cache shared by all data providers **/
+	private static final RandomDatasetCache DEFAULT = new RandomDatasetCache(DEFAULT_DIRECTORY,
+		DEFAULT_MAX_DATASET_BYTES, DEFAULT_MAX_CACHE_BYTES);
+
+	/** Properties that determine generated rows, other properties don't change the dataset **/
+	private static final String[] KEY_PROPERTIES = { "numberOfRows", "numberOfAttributes", "numberOfIndicators",
+		"attributePrefix" };
+
+	/** Length of generated date and time values, see {@link RandomRows} **/
+	private static final int DATE_LENGTH = "yyyy-MM-dd HH:mm:ss".length();
+
+	/** Name prefix and suffix of dataset files **/
+	private static final String FILE_PREFIX = "random-", FILE_SUFFIX = ".dataset";
+
+	/** Directory of dataset files **/
+	private final File directory;
+
+	/** Maximal size of one dataset file **/
+	private final long maxDatasetBytes;
+
+	/** Maximal size of all dataset files **/
+	private final long maxCacheBytes;
+
+	/**
+	 * Datasets by their keys, completed with {@code null} for configurations whose datasets exceed the maximal size.
+	 * Pending futures are datasets being opened or generated.
+	 **/
+	private final ConcurrentHashMap<String, CompletableFuture<RandomDataset>> datasets =
+		new ConcurrentHashMap<String, CompletableFuture<RandomDataset>>();
+
+	/** Number of requests served by an existing dataset **/
+	private final AtomicLong hitCount = new AtomicLong();
+
+	/** Number of generated datasets **/
+	private final AtomicLong buildCount = new AtomicLong();
+
+	/**
+	 * Creates cache with the given limits.
+	 * @param directory Directory of dataset files
+	 * @param maxDatasetBytes Maximal size of one dataset file, larger datasets are not cached
+	 * @param maxCacheBytes Maximal size of all dataset files
+	 */
+	public RandomDatasetCache(File directory, long maxDatasetBytes, long maxCacheBytes) {
+		this.directory = directory;
+		this.maxDatasetBytes = maxDatasetBytes;
+		this.maxCacheBytes = maxCacheBytes;
+	}
+
+	/**
+	 * Returns cache shared by all data providers. Its directory and limits are set by system properties
+	 * {@code belladati.connector.dataset.dir}, {@code belladati.connector.dataset.maxBytes} and
+	 * {@code belladati.connector.dataset.maxCacheBytes}.
+	 * @return Shared cache
+	 */
+	public static RandomDatasetCache getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns key of the given configuration, containing values of all properties that determine generated rows.
+	 * @param properties Data provider configuration
+	 * @return Key of the configuration
+	 */
+	public static String createKey(Map<String, PropertyValueApi<?>> properties) {
+		StringBuilder key = new StringBuilder();
+		for (String name : KEY_PROPERTIES) {
+			PropertyValueApi<?> value = properties.get(name);
+			key.append(name).append('=').append(value != null ? value.getValueOrDefaultAsString() : "").append('\n');
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns dataset of the given configuration, it is generated when it doesn't exist yet. Only one thread opens or
+	 * generates the dataset of a configuration, other requests for the same configuration wait for it, while requests
+	 * for other configurations are not blocked.
+	 * @param properties Data provider configuration
+	 * @return Dataset or {@code null} if the dataset exceeds the maximal size and rows must be generated
+	 * @throws IllegalStateException if the dataset cannot be read or written
+	 */
+	public RandomDataset getDataset(Map<String, PropertyValueApi<?>> properties) {
+		final String key = createKey(properties);
+		while (true) {
+			CompletableFuture<RandomDataset> future = datasets.get(key);
+			if (future == null) {
+				CompletableFuture<RandomDataset> created = new CompletableFuture<RandomDataset>();
+				future = datasets.putIfAbsent(key, created);
+				if (future == null) {
+					return load(key, properties, created);
+				}
+			}
+			RandomDataset dataset = await(future);
+			if (dataset == null || dataset.getFile().isFile()) {
+				return dataset != null ? use(dataset) : null;
+			}
+			// dataset file was removed outside of the cache, the first thread to notice it loads the dataset again
+			datasets.remove(key, future);
+		}
+	}
+
+	/**
+	 * Opens existing dataset file or generates the dataset and completes the future with it. Failed future is removed,
+	 * so that the next request tries again.
+	 * @param key Key of the configuration
+	 * @param properties Data provider configuration
+	 * @param future Future registered for the key by the current thread
+	 * @return Dataset or {@code null} if the dataset exceeds the maximal size
+	 */
+	private RandomDataset load(String key, Map<String, PropertyValueApi<?>> properties,
+		CompletableFuture<RandomDataset> future) {
+		try {
+			RandomDataset dataset = openOrGenerate(key, properties);
+			future.complete(dataset);
+			return dataset;
+		} catch (RuntimeException e) {
+			datasets.remove(key, future);
+			future.completeExceptionally(e);
+			throw e;
+		} catch (Error e) {
+			datasets.remove(key, future);
+			future.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	private RandomDataset openOrGenerate(String key, Map<String, PropertyValueApi<?>> properties) {
+		File file = new File(directory, FILE_PREFIX + hash(key) + FILE_SUFFIX);
+		try {
+			if (file.isFile()) {
+				try {
+					RandomDataset dataset = RandomDataset.open(file);
+					if (key.equals(dataset.getKey())) {
+						return use(dataset);
+					}
+					log.info("Dataset " + file + " has different configuration, generating it again");
+				} catch (IOException e) {
+					log.warn("Dataset " + file + " cannot be read, generating it again", e);
+				}
+			}
+
+			final long limit = Math.min(maxDatasetBytes, RandomDataset.MAX_FILE_BYTES);
+			final long estimatedBytes = estimateDatasetBytes(properties);
+			if (estimatedBytes > limit) {
+				log.warn("Dataset of estimated " + estimatedBytes + " bytes exceeds " + limit
+					+ " bytes, rows will be generated: " + key);
+				return null;
+			}
+
+			long start = System.currentTimeMillis();
+			Files.createDirectories(directory.toPath());
+			RandomRows rows = new RandomRows(properties, true, -1);
+			Iterator<RandomRow> iterator = rows.iterator();
+			RandomDataset dataset = RandomDataset.create(file, key, rows.getColumns(), iterator, maxDatasetBytes);
+			if (dataset == null) {
+				log.warn("Dataset exceeds " + maxDatasetBytes + " bytes, rows will be generated: " + key);
+				return null;
+			}
+			buildCount.incrementAndGet();
+			log.info("Generated " + dataset + " in " + (System.currentTimeMillis() - start) + " ms");
+			evict(file);
+			return dataset;
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot materialize dataset " + file, e);
+		}
+	}
+
+	/**
+	 * Returns size of the dataset file of the given configuration computed from the lengths of generated values,
+	 * without the file header. Values have fixed lengths, so datasets too large to be cached are recognized without
+	 * generating them.
+	 * @param properties Data provider configuration
+	 * @return Estimated number of bytes, never more than the size of the written file
+	 */
+	static long estimateDatasetBytes(Map<String, PropertyValueApi<?>> properties) {
+		final long numberOfRows = Math.max(0, ConnectorUtils.getIntValue(properties, "numberOfRows"));
+		final int numberOfAttributes = ConnectorUtils.getIntValue(properties, "numberOfAttributes");
+		final int numberOfIndicators = ConnectorUtils.getIntValue(properties, "numberOfIndicators");
+		final int prefixLength = properties.get("attributePrefix").getValueOrDefaultAsString()
+			.getBytes(StandardCharsets.UTF_8).length;
+		// row length, then length and bytes of every value
+		long rowBytes = 4 + 4 + DATE_LENGTH;
+		for (int index = 1; index <= numberOfAttributes; index++) {
+			// prefix, number of the attribute, space and one character
+			rowBytes += 4 + prefixLength + String.valueOf(index).length() + 2;
+		}
+		for (int index = 1; index <= numberOfIndicators; index++) {
+			// number of the indicator and four digits
+			rowBytes += 4 + String.valueOf(index).length() + 4;
+		}
+		final long blocks = (numberOfRows + RandomDataset.BLOCK_ROWS - 1) / RandomDataset.BLOCK_ROWS;
+		return numberOfRows * rowBytes + 4 * blocks;
+	}
+
+	/**
+	 * Waits until the dataset is opened or generated by another thread.
+	 */
+	private RandomDataset await(CompletableFuture<RandomDataset> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for dataset", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof IllegalStateException ? (IllegalStateException) cause
+				: new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Marks the dataset as recently used.
+	 */
+	private RandomDataset use(RandomDataset dataset) {
+		hitCount.incrementAndGet();
+		dataset.getFile().setLastModified(System.currentTimeMillis());
+		return dataset;
+	}
+
+	/**
+	 * Removes least recently used dataset files while the cache exceeds its size, together with their datasets, so
+	 * that the mappings are released when running imports finish. Only one thread evicts at a time.
+	 * @param current Dataset file that must be kept
+	 */
+	private synchronized void evict(File current) {
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().startsWith(FILE_PREFIX) && file.getName().endsWith(FILE_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+		long totalBytes = 0;
+		for (File file : files) {
+			totalBytes += file.length();
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File file1, File file2) {
+				return Long.compare(file1.lastModified(), file2.lastModified());
+			}
+		});
+		for (int i = 0; i < files.length && totalBytes > maxCacheBytes; i++) {
+			if (!files[i].equals(current)) {
+				long length = files[i].length();
+				// opened mappings stay readable, but the dataset is generated again when it is requested
+				if (files[i].delete()) {
+					totalBytes -= length;
+					removeDataset(files[i]);
+					log.info("Removed dataset " + files[i] + " to keep cache under " + maxCacheBytes + " bytes");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes dataset of the given file from the cache. Datasets being opened or generated are kept.
+	 */
+	private void removeDataset(File file) {
+		for (Map.Entry<String, CompletableFuture<RandomDataset>> entry : datasets.entrySet()) {
+			CompletableFuture<RandomDataset> future = entry.getValue();
+			if (future.isDone() && !future.isCompletedExceptionally()) {
+				RandomDataset dataset = future.join();
+				if (dataset != null && dataset.getFile().equals(file)) {
+					datasets.remove(entry.getKey(), future);
+				}
+			}
+		}
+	}
+
+	private static String hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 16; i++) {
+				hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getMaxDatasetBytes() {
+		return maxDatasetBytes;
+	}
+
+	public long getMaxCacheBytes() {
+		return maxCacheBytes;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getBuildCount() {
+		return buildCount.get();
+	}
+
+	/**
+	 * Returns number of configurations known to the cache, including configurations whose datasets exceed the maximal
+	 * size and datasets being opened or generated.
+	 * @return Number of cached entries
+	 */
+	public int getDatasetCount() {
+		return datasets.size();
+	}
+
+	@Override
+	public String toString() {
+		return "RandomDatasetCache[directory=" + directory + ", datasets=" + datasets.size() + ", hits=" + hitCount
+			+ ", builds=" + buildCount + "]";
+	}
+
+}
@@ -1,19 +1,21 @@
 package com.belladati.sdk.connector.example.generator;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
-
-import org.apache.commons.lang3.RandomStringUtils;
+import java.util.Spliterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 import com.belladati.sdk.connector.ConnectorUtils;
 import com.belladati.sdk.connector.ProgressBarApi;
 import com.belladati.sdk.connector.PropertyValueApi;
 import com.belladati.sdk.connector.RowsApi;
+import com.belladati.sdk.connector.example.RowMemoryBudget;
 
 /**
  * Example implementation of {@link RowsApi}.
@@ -21,8 +23,14 @@ import com.belladati.sdk.connector.RowsApi;
  */
 public class RandomRows implements RowsApi<RandomRow> {
 
-	/** Date format used for datetime column **/
-	private final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	/** Date format used for datetime column, it is thread-safe, so that rows can be generated in parallel **/
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+	/** Number of generated rows in one window of the memory budget, must be a power of two **/
+	private static final int MEMORY_CHECK_ROWS = 1024;
+
+	/** Last formatted date and time, shared by all generators **/
+	private static volatile FormattedDate currentDate;
 
 	/** Data provider configuration **/
 	private final Map<String, PropertyValueApi<?>> properties;
@@ -39,6 +47,12 @@ public class RandomRows implements RowsApi<RandomRow> {
 	/** Array containing all column names **/
 	private String[] columnNames;
 
+	/** Memory account of generated rows or {@code null} if memory is not limited **/
+	private volatile RowMemoryBudget.Account memoryAccount;
+
+	/** Materialized dataset replayed instead of generating values or {@code null} if values are generated **/
+	private final RandomDataset dataset;
+
 	/**
 	 * Creates object responsible for providing source rows based on the given parameters.
 	 * @param properties Data provider configuration
@@ -46,7 +60,7 @@ public class RandomRows implements RowsApi<RandomRow> {
 	 * @param progressBar Reference to progress bar displayed on user interface during import
 	 */
 	public RandomRows(Map<String, PropertyValueApi<?>> properties, boolean skipHeaders, ProgressBarApi progressBar) {
-		this(properties, skipHeaders, -1, progressBar);
+		this(properties, null, skipHeaders, -1, progressBar);
 	}
 
 	/**
@@ -56,19 +70,21 @@ public class RandomRows implements RowsApi<RandomRow> {
 	 * @param limit Maximal number of rows that should be available through iterator
 	 */
 	public RandomRows(Map<String, PropertyValueApi<?>> properties, boolean skipHeaders, Integer limit) {
-		this(properties, skipHeaders, limit, null);
+		this(properties, null, skipHeaders, limit, null);
 	}
 
 	/**
 	 * Creates object responsible for providing source rows based on the given parameters.
 	 * @param properties Data provider configuration
+	 * @param dataset Materialized dataset of the configuration or {@code null} if values should be generated
 	 * @param skipHeaders Flag if iterator should provide header
 	 * @param limit Maximal number of rows that should be available through iterator
 	 * @param progressBar Reference to progress bar displayed on user interface during import
 	 */
-	private RandomRows(Map<String, PropertyValueApi<?>> properties, boolean skipHeaders, Integer limit,
+	RandomRows(Map<String, PropertyValueApi<?>> properties, RandomDataset dataset, boolean skipHeaders, Integer limit,
 		ProgressBarApi progressBar) {
 		this.properties = properties;
+		this.dataset = dataset;
 		this.skipHeaders = skipHeaders;
 		this.limit = limit;
 		this.progressBar = progressBar;
@@ -79,8 +95,48 @@ public class RandomRows implements RowsApi<RandomRow> {
 		return new SampleRowsIterator();
 	}
 
+	/**
+	 * Returns {@link Spliterator} over the generated rows. Every row is independent, so the rows are split by index
+	 * range and can be generated in parallel, e.g. by {@code StreamSupport.stream(rows.spliterator(), true)}.
+	 */
+	@Override
+	public Spliterator<RandomRow> spliterator() {
+		RowGenerator generator = new RowGenerator();
+		return new SampleRowsSpliterator(generator, 0, generator.getRowCount());
+	}
+
+	/**
+	 * Sets memory account of generated rows. Rows are pulled by the consumer, so every iterator or spliterator holds the
+	 * size of one window of rows in the account. Rows of the previous window are considered consumed when the consumer
+	 * asks for a row of the next window, and the window is released when the iterator or spliterator is exhausted.
+	 * Generation pauses before every window while the memory budget is exceeded.
+	 * @param memoryAccount Memory account of the import, it is closed together with this object
+	 */
+	public void setMemoryAccount(RowMemoryBudget.Account memoryAccount) {
+		this.memoryAccount = memoryAccount;
+	}
+
+	/**
+	 * Returns memory account of generated rows.
+	 * @return Memory account or {@code null} if memory is not limited
+	 */
+	public RowMemoryBudget.Account getMemoryAccount() {
+		return memoryAccount;
+	}
+
+	/**
+	 * Returns materialized dataset replayed by this object.
+	 * @return Dataset or {@code null} if values are generated
+	 */
+	public RandomDataset getDataset() {
+		return dataset;
+	}
+
 	@Override
 	public void close() throws IOException {
+		if (memoryAccount != null) {
+			memoryAccount.close();
+		}
 	}
 
 	@Override
@@ -89,13 +145,11 @@ public class RandomRows implements RowsApi<RandomRow> {
 	}
 
 	/**
-	 * An iterator over a random generated {@link RandomRow}s.
+	 * Generator of {@link RandomRow}s at the given index. It doesn't keep any state, so it can be used from more
+	 * threads at once. Values of a materialized dataset are read by a {@link RandomDataset.Cursor} of each thread.
 	 * @author Lubomir Elko
 	 */
-	private class SampleRowsIterator implements Iterator<RandomRow> {
-
-		/** Current index/position **/
-		private int index = 0;
+	private class RowGenerator {
 
 		/** Basic counts based on the data provider configuration **/
 		private final int totalRows, totalColumns, numberOfAttributes, numberOfIndicators;
@@ -103,93 +157,202 @@ public class RandomRows implements RowsApi<RandomRow> {
 		/** Prefix that will be used for **/
 		private final String attributePrefix;
 
+		/** Constant beginnings of attribute and indicator values, random characters are appended to them **/
+		private final String[] valuePrefixes;
+
 		/**
-		 * Creates {@link Iterator} that will iterate over random generated values.
+		 * Creates generator based on the data provider configuration.
 		 */
-		public SampleRowsIterator() {
-			this.totalRows = ConnectorUtils.getIntValue(properties, "numberOfRows");
+		public RowGenerator() {
+			this.totalRows = dataset != null ? dataset.getRowCount() : ConnectorUtils.getIntValue(properties,
+				"numberOfRows");
 			this.numberOfAttributes = ConnectorUtils.getIntValue(properties, "numberOfAttributes");
 			this.numberOfIndicators = ConnectorUtils.getIntValue(properties, "numberOfIndicators");
 			this.totalColumns = 1 + numberOfAttributes + numberOfIndicators;
 			this.attributePrefix = properties.get("attributePrefix").getValueOrDefaultAsString();
-		}
-
-		@Override
-		public boolean hasNext() {
+			this.valuePrefixes = new String[totalColumns];
+			for (int index = 0; index < numberOfAttributes; index++) {
+				valuePrefixes[1 + index] = attributePrefix + (index + 1) + " ";
+			}
+			for (int index = 0; index < numberOfIndicators; index++) {
+				valuePrefixes[1 + numberOfAttributes + index] = String.valueOf(index + 1);
+			}
 			if (columnNames == null) {
-				columnNames = getHeaders().toArray(new String[totalColumns]);
+				columnNames = getHeaders();
 			}
+		}
 
-			final int nextIndex = skipHeaders ? (index + 1) : index;
-
-			if (nextIndex > totalRows) {
-				// we exceeded total number of rows
-				return false;
-			}
-			if (limit != -1 && nextIndex > limit) {
-				// we exceeded required limit
-				return false;
+		/**
+		 * Returns number of rows available through iterator, including header.
+		 * @return Number of rows
+		 */
+		public int getRowCount() {
+			int count = totalRows;
+			if (limit != -1 && limit < count) {
+				count = limit;
 			}
-			return true;
+			return skipHeaders ? count : count + 1;
 		}
 
-		@Override
-		public RandomRow next() {
+		/**
+		 * Opens cursor of the materialized dataset at the given index.
+		 * @param index Index of the first row
+		 * @return Cursor or {@code null} if values are generated
+		 */
+		public RandomDataset.Cursor openCursor(int index) {
+			return dataset != null ? dataset.openCursor(skipHeaders ? index : Math.max(0, index - 1)) : null;
+		}
+
+		/**
+		 * Creates row at the given index.
+		 * @param index Index of the row
+		 * @param cursor Cursor of the materialized dataset positioned at the row or {@code null} to generate values
+		 * @param window Memory window of the calling iterator or spliterator
+		 * @return Header or random generated row
+		 */
+		public RandomRow createRow(int index, RandomDataset.Cursor cursor, MemoryWindow window) {
 			ConnectorUtils.updateProgressBar(progressBar, index, totalRows);
 
 			if (!skipHeaders && index == 0) {
-				return new RandomRow(index++, getHeaders().toArray(new String[totalColumns]));
+				return new RandomRow(index, getHeaders());
 			} else {
-				return new RandomRow(index++, generateValues().toArray(new String[totalColumns]));
+				String[] values = cursor != null ? cursor.next() : generateValues();
+				window.rowCreated(values);
+				return new RandomRow(index, values);
 			}
 		}
 
 		/**
 		 * Returns column names.
-		 * @return {@link List} containing column names
+		 * @return Array containing column names
 		 */
-		private List<String> getHeaders() {
-			ArrayList<String> values = new ArrayList<String>(totalColumns);
-			values.add("Date and time");
+		private String[] getHeaders() {
+			String[] values = new String[totalColumns];
+			values[0] = "Date and time";
 			for (int index = 0; index < numberOfAttributes; index++) {
-				values.add("Attribute " + (index + 1));
+				values[1 + index] = "Attribute " + (index + 1);
 			}
 			for (int index = 0; index < numberOfIndicators; index++) {
-				values.add("Indicator " + (index + 1));
+				values[1 + numberOfAttributes + index] = "Indicator " + (index + 1);
 			}
 			return values;
 		}
 
 		/**
 		 * Returns random generated values.
-		 * @return {@link List} containing random generated values
+		 * @return Array containing random generated values
 		 */
-		private List<String> generateValues() {
-			ArrayList<String> values = new ArrayList<String>(totalColumns);
-			values.add(DATE_FORMAT.format(new Date()));
-			for (int index = 0; index < numberOfAttributes; index++) {
-				values.add(attributePrefix + (index + 1) + " " + getRandomLetter());
+		private String[] generateValues() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			String[] values = new String[totalColumns];
+			values[0] = getCurrentDate();
+			for (int index = 1; index <= numberOfAttributes; index++) {
+				// one random alphabetic character in upper case
+				values[index] = randomSuffix(valuePrefixes[index], 1, 'A', 26, random);
 			}
-			for (int index = 0; index < numberOfIndicators; index++) {
-				values.add((index + 1) + getRandomNumber());
+			for (int index = 1 + numberOfAttributes; index < totalColumns; index++) {
+				// random number with 4 digits
+				values[index] = randomSuffix(valuePrefixes[index], 4, '0', 10, random);
 			}
 			return values;
 		}
 
 		/**
-		 * Generates random number with 4 digits.
-		 * @return Random number
+		 * Returns given prefix followed by random characters, built without intermediate objects.
+		 * @param prefix Constant beginning of the value
+		 * @param count Number of random characters
+		 * @param first First character of the range
+		 * @param range Number of characters in the range
+		 * @param random Random number generator
+		 * @return Generated value
 		 */
-		private String getRandomNumber() {
-			return RandomStringUtils.randomNumeric(4);
+		private String randomSuffix(String prefix, int count, char first, int range, ThreadLocalRandom random) {
+			final int length = prefix.length();
+			char[] chars = new char[length + count];
+			prefix.getChars(0, length, chars, 0);
+			for (int i = length; i < chars.length; i++) {
+				chars[i] = (char) (first + random.nextInt(range));
+			}
+			return new String(chars);
 		}
 
+	}
+
+	/**
+	 * Returns current date and time formatted by {@link #DATE_FORMAT}. Formatted value is reused within the same second.
+	 * @return Current date and time
+	 */
+	private static String getCurrentDate() {
+		final long second = System.currentTimeMillis() / 1000;
+		FormattedDate date = currentDate;
+		if (date == null || date.second != second) {
+			LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault());
+			currentDate = date = new FormattedDate(second, DATE_FORMAT.format(dateTime));
+		}
+		return date.text;
+	}
+
+	/**
+	 * Date and time formatted with precision of one second.
+	 * @author Lubomir Elko
+	 */
+	private static class FormattedDate {
+
+		/** Seconds since epoch **/
+		private final long second;
+
+		/** Formatted value **/
+		private final String text;
+
+		public FormattedDate(long second, String text) {
+			this.second = second;
+			this.text = text;
+		}
+
+	}
+
+	/**
+	 * An iterator over a random generated {@link RandomRow}s.
+	 * @author Lubomir Elko
+	 */
+	private class SampleRowsIterator implements Iterator<RandomRow> {
+
+		/** Current index/position **/
+		private int index = 0;
+
+		/** Generator of rows **/
+		private final RowGenerator generator;
+
+		/** Number of rows available through iterator **/
+		private final int rowCount;
+
+		/** Cursor of the materialized dataset or {@code null} if values are generated **/
+		private final RandomDataset.Cursor cursor;
+
+		/** Memory held by rows of this iterator **/
+		private final MemoryWindow window = new MemoryWindow();
+
 		/**
-		 * Generates one random alphabetic character in upper case.
-		 * @return Random character
+		 * Creates {@link Iterator} that will iterate over random generated values.
 		 */
-		private String getRandomLetter() {
-			return RandomStringUtils.randomAlphabetic(1).toUpperCase();
+		public SampleRowsIterator() {
+			this.generator = new RowGenerator();
+			this.rowCount = generator.getRowCount();
+			this.cursor = generator.openCursor(0);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (index < rowCount) {
+				return true;
+			}
+			window.release();
+			return false;
+		}
+
+		@Override
+		public RandomRow next() {
+			return generator.createRow(index++, cursor, window);
 		}
 
 		@Override
@@ -199,4 +362,132 @@ public class RandomRows implements RowsApi<RandomRow> {
 
 	}
 
+	/**
+	 * Memory held in the memory account by rows of one iterator or spliterator, one window of rows at a time.
+	 * @author Lubomir Elko
+	 */
+	private class MemoryWindow {
+
+		/** Number of rows created in this window so far **/
+		private int rows;
+
+		/** Number of bytes held in the memory account **/
+		private long bytes;
+
+		/**
+		 * Records created row. The first row of every window releases the previous window, which has been consumed, and
+		 * holds memory for the new one, waiting while the memory budget is exceeded.
+		 * @param values Values of the created row
+		 */
+		public void rowCreated(String[] values) {
+			if ((rows++ & (MEMORY_CHECK_ROWS - 1)) != 0) {
+				return;
+			}
+			final RowMemoryBudget.Account account = memoryAccount;
+			if (account != null) {
+				account.release(bytes);
+				bytes = RowMemoryBudget.estimateRowBytes(values) * MEMORY_CHECK_ROWS;
+				account.reserve(bytes);
+			}
+		}
+
+		/**
+		 * Releases memory of the last window, when all rows have been consumed.
+		 */
+		public void release() {
+			final RowMemoryBudget.Account account = memoryAccount;
+			if (account != null && bytes > 0) {
+				account.release(bytes);
+				bytes = 0;
+			}
+		}
+
+	}
+
+	/**
+	 * A spliterator over a range of random generated {@link RandomRow}s.
+	 * @author Lubomir Elko
+	 */
+	private class SampleRowsSpliterator implements Spliterator<RandomRow> {
+
+		/** Minimal number of rows in one split, smaller ranges are not worth generating in parallel **/
+		private static final int MIN_SPLIT_SIZE = 1024;
+
+		/** Generator of rows **/
+		private final RowGenerator generator;
+
+		/** Current index/position **/
+		private int index;
+
+		/** Index after the last row of this range **/
+		private final int end;
+
+		/** Cursor of the materialized dataset, opened at the first traversed row **/
+		private RandomDataset.Cursor cursor;
+
+		/** Memory held by rows of this range **/
+		private final MemoryWindow window = new MemoryWindow();
+
+		/**
+		 * Creates {@link Spliterator} over rows in the given range.
+		 * @param generator Generator of rows
+		 * @param index Index of the first row
+		 * @param end Index after the last row
+		 */
+		public SampleRowsSpliterator(RowGenerator generator, int index, int end) {
+			this.generator = generator;
+			this.index = index;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super RandomRow> action) {
+			if (index >= end) {
+				window.release();
+				return false;
+			}
+			if (cursor == null) {
+				cursor = generator.openCursor(index);
+			}
+			action.accept(generator.createRow(index++, cursor, window));
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super RandomRow> action) {
+			if (cursor == null && index < end) {
+				cursor = generator.openCursor(index);
+			}
+			while (index < end) {
+				action.accept(generator.createRow(index++, cursor, window));
+			}
+			window.release();
+		}
+
+		@Override
+		public Spliterator<RandomRow> trySplit() {
+			final int size = end - index;
+			if (size < 2 * MIN_SPLIT_SIZE) {
+				return null;
+			}
+			final int middle = index + size / 2;
+			Spliterator<RandomRow> prefix = new SampleRowsSpliterator(generator, index, middle);
+			index = middle;
+			// reopened at the new position
+			cursor = null;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+
+	}
+
 }
@@ -0,0 +1,199 @@
+package com.belladati.sdk.connector.example.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.belladati.sdk.connector.ConnectorUtils;
+import com.belladati.sdk.connector.PropertyValueApi;
+
+/**
+ * Dialect of embedded H2 database running in PostgreSQL compatibility mode. It needs no server, so the data provider
+ * can be tested and benchmarked offline with the same queries as against PostgreSQL. The {@code database} property is
+ * H2 database name, e.g. {@code mem:test;DB_CLOSE_DELAY=-1} or {@code ~/benchmark}. Features of the PostgreSQL server
+ * that H2 doesn't have, like sampling, fingerprints, exported snapshots and backend processes, are not available.
+ * @author Lubomir Elko
+ */
+public class H2Dialect implements JdbcDialect {
+
+	/** Class name of the driver, H2 is not a compile dependency of the connector **/
+	private static final String DRIVER_CLASS_NAME = "org.h2.Driver";
+
+	/** Minimal number of rows in one partition, smaller tables are not worth reading in parallel **/
+	private static final long MIN_PARTITION_ROWS = 1024;
+
+	@Override
+	public String getName() {
+		return "H2";
+	}
+
+	@Override
+	public String getDriverClassName() {
+		return DRIVER_CLASS_NAME;
+	}
+
+	@Override
+	public String getConnectionUrl(Map<String, PropertyValueApi<?>> properties) {
+		return "jdbc:h2:" + ConnectorUtils.getStringValue(properties, "database") + ";MODE=PostgreSQL";
+	}
+
+	@Override
+	public Properties getConnectionProperties(Map<String, PropertyValueApi<?>> properties) {
+		// driver refuses unknown properties, so only credentials are passed
+		Properties p = new Properties();
+		for (String key : new String[] { "user", "password" }) {
+			PropertyValueApi<?> value = properties.get(key);
+			if (value != null && value.getValueOrDefault() != null) {
+				p.put(key, value.getValueOrDefaultAsString());
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * Applies statement and lock timeouts, other settings have no equivalent in H2.
+	 */
+	@Override
+	public void applySessionSettings(Connection connection, Map<String, String> settings) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			String statementTimeout = settings.get("statement_timeout");
+			if (statementTimeout != null) {
+				statement.execute("SET QUERY_TIMEOUT " + Integer.parseInt(statementTimeout));
+			}
+			String lockTimeout = settings.get("lock_timeout");
+			// 0 disables the timeout in PostgreSQL, but means no waiting in H2
+			if (lockTimeout != null && Integer.parseInt(lockTimeout) > 0) {
+				statement.execute("SET LOCK_TIMEOUT " + Integer.parseInt(lockTimeout));
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	@Override
+	public void configureStreaming(Connection connection, PreparedStatement statement, int fetchSize)
+		throws SQLException {
+		// embedded database keeps results in its own buffers, fetch size matters only for remote connections
+		statement.setFetchSize(fetchSize);
+	}
+
+	@Override
+	public void configureBulkTransfer(PreparedStatement statement) {
+		// values are not transferred over network
+	}
+
+	@Override
+	public String wrapWithLimit(String sql) {
+		return JdbcQueryRewriter.wrapWithLimit(sql);
+	}
+
+	@Override
+	public String createCountQuery(String sql) {
+		return JdbcQueryRewriter.wrapWithCount(sql);
+	}
+
+	/**
+	 * Returns {@code null}, H2 cannot sample tables.
+	 */
+	@Override
+	public String createSampledQuery(Connection connection, String sql, int limit) {
+		return null;
+	}
+
+	/**
+	 * Returns {@code null}, H2 cannot convert whole rows of an arbitrary query to text to hash them.
+	 */
+	@Override
+	public String createFingerprintQuery(String sql) {
+		return null;
+	}
+
+	/**
+	 * Returns exact number of rows, counting is cheap in embedded database since no rows are transferred.
+	 */
+	@Override
+	public long estimateRowCount(Connection connection, String sql) throws SQLException {
+		String countSql = createCountQuery(sql);
+		if (countSql == null) {
+			return -1;
+		}
+		return queryLongs(connection, countSql)[0];
+	}
+
+	/**
+	 * Splits simple single-table queries into ranges of {@code _ROWID_}.
+	 */
+	@Override
+	public List<String> createPartitionQueries(Connection connection, String sql, int partitions) throws SQLException {
+		final String table = JdbcQueryRewriter.getSingleTable(sql);
+		if (table == null || JdbcQueryRewriter.addCondition(sql, "true") == null) {
+			return null;
+		}
+		long[] bounds = queryLongs(connection, "SELECT MIN(_ROWID_), MAX(_ROWID_) FROM " + table);
+		final long rows = bounds[1] - bounds[0] + 1;
+		final int count = (int) Math.min(partitions, rows / MIN_PARTITION_ROWS);
+		if (count < 2) {
+			return null;
+		}
+		final long step = (rows + count - 1) / count;
+		List<String> queries = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			String lower = "_ROWID_ >= " + (bounds[0] + i * step);
+			String upper = "_ROWID_ < " + (bounds[0] + (i + 1) * step);
+			// open ranges at both ends keep rows inserted after the bounds were read
+			String condition = i == 0 ? upper : i == count - 1 ? lower : lower + " AND " + upper;
+			queries.add(JdbcQueryRewriter.addCondition(sql, condition));
+		}
+		return queries;
+	}
+
+	/**
+	 * Returns {@code null}, H2 cannot share snapshots among connections.
+	 */
+	@Override
+	public String exportSnapshot(Connection connection) {
+		return null;
+	}
+
+	@Override
+	public void importSnapshot(Connection connection, String snapshot) throws SQLException {
+		throw new SQLException("H2 cannot import snapshots");
+	}
+
+	/**
+	 * Returns {@code null}, embedded database has no server backend.
+	 */
+	@Override
+	public Integer getBackendPid(Connection connection) {
+		return null;
+	}
+
+	private long[] queryLongs(Connection connection, String sql) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement(sql);
+		try {
+			ResultSet rs = ps.executeQuery();
+			try {
+				final int columns = rs.getMetaData().getColumnCount();
+				long[] values = new long[columns];
+				if (rs.next()) {
+					for (int i = 0; i < columns; i++) {
+						values[i] = rs.getLong(i + 1);
+					}
+				}
+				return values;
+			} finally {
+				rs.close();
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+}
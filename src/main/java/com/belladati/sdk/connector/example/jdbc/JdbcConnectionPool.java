@@ -0,0 +1,517 @@
+package com.belladati.sdk.connector.example.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Pool of physical connections, so that following previews, validations and imports reuse connections together with
+ * server-side prepared statements cached by the driver on them. Idle connections are kept per session key, since
+ * session settings applied to a new connection stay for its whole life.
+ * <p>
+ * Borrowed connections are proxies: closing them rolls back the open transaction and returns the physical connection
+ * to the pool, statements created through them are closed too. SQL prepared on every physical connection is tracked
+ * in the same way as the driver caches it, to report how many statements re-prepare SQL already prepared on the same
+ * physical connection. Whether the driver served them from its cache is not visible through JDBC.
+ * @author Lubomir Elko
+ */
+public class JdbcConnectionPool {
+	private final static Log log = LogFactory.getLog(JdbcConnectionPool.class);
+
+	/** Default maximal number of idle connections, set by system property **/
+	public static final int DEFAULT_MAX_IDLE_CONNECTIONS = Integer.getInteger("belladati.connector.pool.maxIdle", 4);
+
+	/** Default time in milliseconds after which an idle connection is closed, set by system property **/
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = Long.getLong("belladati.connector.pool.idleTimeout",
+		300000);
+
+	/** Default number of prepared SQL queries tracked per connection, the same as the PostgreSQL driver caches **/
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 256;
+
+	/** Idle time after which a connection is validated before it is borrowed again **/
+	private static final long VALIDATION_INTERVAL_MILLIS = 5000;
+
+	/** Timeout of connection validation in seconds **/
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	/** Maximal number of idle connections, 0 disables pooling **/
+	private volatile int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+
+	/** Time in milliseconds after which an idle connection is closed **/
+	private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+	/** Number of prepared SQL queries tracked per connection **/
+	private volatile int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+
+	/** Idle connections by session key, the most recently used last **/
+	private final Map<String, Deque<PhysicalConnection>> idle = new HashMap<String, Deque<PhysicalConnection>>();
+
+	/** Number of idle connections **/
+	private int idleCount;
+
+	/** Generation of connections, connections of older generations are closed when they are returned **/
+	private long generation;
+
+	/** Number of created physical connections **/
+	private final AtomicLong createdCount = new AtomicLong();
+
+	/** Number of connections borrowed from the pool instead of being created **/
+	private final AtomicLong reusedCount = new AtomicLong();
+
+	/** Number of statements re-prepared with SQL already prepared on the same physical connection **/
+	private final AtomicLong repreparedCount = new AtomicLong();
+
+	/** Number of statements prepared with SQL not prepared on the physical connection yet **/
+	private final AtomicLong firstPreparedCount = new AtomicLong();
+
+	/**
+	 * Borrows connection with the given session settings. A new physical connection is created if there is no idle
+	 * one.
+	 * @param dataSource Data source of physical connections
+	 * @param sessionKey Key of session settings applied by the initializer
+	 * @param initializer Action applying session settings to a new physical connection or {@code null}
+	 * @return Connection that must be closed to be returned to the pool
+	 * @throws SQLException if the connection cannot be created
+	 */
+	public Connection getConnection(DataSource dataSource, String sessionKey, Consumer<Connection> initializer)
+		throws SQLException {
+		evictIdle();
+		PhysicalConnection physical;
+		while ((physical = pollIdle(sessionKey)) != null) {
+			if (isUsable(physical)) {
+				reusedCount.incrementAndGet();
+				return physical.borrow();
+			}
+			closeQuietly(physical.connection);
+		}
+
+		final long connectionGeneration = getGeneration();
+		Connection connection = dataSource.getConnection();
+		try {
+			if (initializer != null) {
+				initializer.accept(connection);
+			}
+		} catch (RuntimeException e) {
+			closeQuietly(connection);
+			throw e;
+		}
+		createdCount.incrementAndGet();
+		return new PhysicalConnection(connection, sessionKey, connectionGeneration).borrow();
+	}
+
+	private synchronized long getGeneration() {
+		return generation;
+	}
+
+	private synchronized PhysicalConnection pollIdle(String sessionKey) {
+		Deque<PhysicalConnection> connections = idle.get(sessionKey);
+		if (connections == null) {
+			return null;
+		}
+		PhysicalConnection physical = connections.pollLast();
+		if (physical != null) {
+			idleCount--;
+		}
+		if (connections.isEmpty()) {
+			idle.remove(sessionKey);
+		}
+		return physical;
+	}
+
+	/**
+	 * Returns flag if the idle connection can be borrowed. Connections idle for a longer time are validated by the
+	 * driver, since the server or network may have closed them.
+	 */
+	private boolean isUsable(PhysicalConnection physical) {
+		final long idleMillis = System.currentTimeMillis() - physical.lastUsed;
+		if (idleMillis > idleTimeoutMillis) {
+			return false;
+		}
+		try {
+			return idleMillis < VALIDATION_INTERVAL_MILLIS || physical.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns physical connection to the pool, or closes it if it cannot be reused.
+	 * @param physical Physical connection
+	 * @param broken Flag if the connection must not be reused
+	 */
+	private void release(PhysicalConnection physical, boolean broken) {
+		if (!broken && maxIdleConnections > 0 && reset(physical.connection)) {
+			synchronized (this) {
+				if (physical.generation == generation && idleCount < maxIdleConnections) {
+					physical.lastUsed = System.currentTimeMillis();
+					Deque<PhysicalConnection> connections = idle.get(physical.sessionKey);
+					if (connections == null) {
+						idle.put(physical.sessionKey, connections = new ArrayDeque<PhysicalConnection>());
+					}
+					connections.addLast(physical);
+					idleCount++;
+					return;
+				}
+			}
+		}
+		closeQuietly(physical.connection);
+	}
+
+	/**
+	 * Ends open transaction of the connection, so that the next user starts with a clean connection.
+	 * @return {@code true} if the connection can be reused
+	 */
+	private boolean reset(Connection connection) {
+		try {
+			if (connection.isClosed()) {
+				return false;
+			}
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+			connection.clearWarnings();
+			return true;
+		} catch (SQLException e) {
+			log.debug("Connection cannot be reused", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Closes all idle connections. Borrowed connections are closed when they are returned.
+	 */
+	public void clear() {
+		List<PhysicalConnection> closed = new ArrayList<PhysicalConnection>();
+		synchronized (this) {
+			generation++;
+			for (Deque<PhysicalConnection> connections : idle.values()) {
+				closed.addAll(connections);
+			}
+			idle.clear();
+			idleCount = 0;
+		}
+		for (PhysicalConnection physical : closed) {
+			closeQuietly(physical.connection);
+		}
+	}
+
+	/**
+	 * Closes connections that have been idle longer than the idle timeout.
+	 */
+	public void evictIdle() {
+		List<PhysicalConnection> closed = new ArrayList<PhysicalConnection>();
+		synchronized (this) {
+			final long oldest = System.currentTimeMillis() - idleTimeoutMillis;
+			for (Iterator<Entry<String, Deque<PhysicalConnection>>> entries = idle.entrySet().iterator(); entries
+				.hasNext();) {
+				Deque<PhysicalConnection> connections = entries.next().getValue();
+				while (!connections.isEmpty() && connections.peekFirst().lastUsed < oldest) {
+					closed.add(connections.pollFirst());
+					idleCount--;
+				}
+				if (connections.isEmpty()) {
+					entries.remove();
+				}
+			}
+		}
+		for (PhysicalConnection physical : closed) {
+			closeQuietly(physical.connection);
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			log.debug("Cannot close connection", e);
+		}
+	}
+
+	public int getMaxIdleConnections() {
+		return maxIdleConnections;
+	}
+
+	/**
+	 * Sets maximal number of idle connections.
+	 * @param maxIdleConnections Maximal number of idle connections, 0 closes every connection when it is returned
+	 */
+	public void setMaxIdleConnections(int maxIdleConnections) {
+		this.maxIdleConnections = maxIdleConnections;
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * Sets number of prepared SQL queries tracked per connection, it should match the statement cache of the driver.
+	 * @param statementCacheSize Number of SQL queries
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public synchronized int getIdleCount() {
+		return idleCount;
+	}
+
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+
+	public long getReusedCount() {
+		return reusedCount.get();
+	}
+
+	public long getRepreparedCount() {
+		return repreparedCount.get();
+	}
+
+	public long getFirstPreparedCount() {
+		return firstPreparedCount.get();
+	}
+
+	/**
+	 * Returns ratio of statements re-prepared with SQL already prepared on the same physical connection. It is an upper
+	 * bound of statements the driver could serve from its cache, not a number of statements it reused.
+	 * @return Ratio between 0 and 1
+	 */
+	public double getRepreparedRatio() {
+		final long reprepared = repreparedCount.get();
+		final long total = reprepared + firstPreparedCount.get();
+		return total > 0 ? (double) reprepared / total : 0d;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ENGLISH, "JdbcConnectionPool[idle=%d, created=%d, reused=%d, reprepared=%d,"
+			+ " firstPrepared=%d, repreparedRatio=%.2f]", getIdleCount(), getCreatedCount(), getReusedCount(),
+			getRepreparedCount(), getFirstPreparedCount(), getRepreparedRatio());
+	}
+
+	/**
+	 * Physical connection of the pool with SQL queries prepared on it.
+	 * @author Lubomir Elko
+	 */
+	private class PhysicalConnection {
+
+		/** Connection created by the data source **/
+		private final Connection connection;
+
+		/** Key of session settings applied to the connection **/
+		private final String sessionKey;
+
+		/** Generation of the pool when the connection was created **/
+		private final long generation;
+
+		/** SQL queries prepared on the connection, the least recently used first **/
+		private final Map<String, Boolean> preparedSql = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, Boolean> eldest) {
+				return size() > statementCacheSize;
+			}
+		};
+
+		/** Time when the connection was returned to the pool **/
+		private volatile long lastUsed;
+
+		public PhysicalConnection(Connection connection, String sessionKey, long generation) {
+			this.connection = connection;
+			this.sessionKey = sessionKey;
+			this.generation = generation;
+		}
+
+		public Connection borrow() {
+			PooledConnectionHandler handler = new PooledConnectionHandler(this);
+			handler.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, handler);
+			return handler.proxy;
+		}
+
+		public synchronized void recordPrepared(String sql) {
+			if (preparedSql.put(sql, Boolean.TRUE) != null) {
+				repreparedCount.incrementAndGet();
+			} else {
+				firstPreparedCount.incrementAndGet();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return connection.toString();
+		}
+
+	}
+
+	/**
+	 * Connection borrowed from the pool. It can be closed from another thread than the one using it.
+	 * @author Lubomir Elko
+	 */
+	private class PooledConnectionHandler implements InvocationHandler {
+
+		/** Borrowed physical connection **/
+		private final PhysicalConnection physical;
+
+		/** Statements created through this connection and not closed yet **/
+		private final List<Statement> statements = new ArrayList<Statement>();
+
+		/** Proxy of this handler given to the user **/
+		private Connection proxy;
+
+		/** Flag if the connection has been returned to the pool **/
+		private boolean closed;
+
+		public PooledConnectionHandler(PhysicalConnection physical) {
+			this.physical = physical;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("toString".equals(name)) {
+				return "Pooled " + physical;
+			} else if ("close".equals(name)) {
+				close(false);
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return isClosed() || physical.connection.isClosed();
+			} else if ("abort".equals(name)) {
+				if (!isClosed()) {
+					physical.connection.abort((Executor) args[0]);
+					close(true);
+				}
+				return null;
+			} else if (isClosed()) {
+				throw new SQLException("Connection has been returned to the pool");
+			}
+
+			Object result = invokeDelegate(physical.connection, method, args);
+			if (result instanceof Statement) {
+				if (("prepareStatement".equals(name) || "prepareCall".equals(name)) && args[0] instanceof String) {
+					physical.recordPrepared((String) args[0]);
+				}
+				Statement statement = (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+					new Class<?>[] { method.getReturnType() }, new PooledStatementHandler(this, (Statement) result));
+				synchronized (this) {
+					statements.add(statement);
+				}
+				return statement;
+			}
+			return result;
+		}
+
+		private synchronized boolean isClosed() {
+			return closed;
+		}
+
+		private void close(boolean broken) {
+			List<Statement> open;
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				open = new ArrayList<Statement>(statements);
+				statements.clear();
+			}
+			for (Statement statement : open) {
+				try {
+					statement.close();
+				} catch (SQLException e) {
+					log.debug("Cannot close statement", e);
+				}
+			}
+			release(physical, broken);
+		}
+
+		private synchronized void remove(Statement statement) {
+			statements.remove(statement);
+		}
+
+	}
+
+	/**
+	 * Statement created through a pooled connection, it returns the pooled connection instead of the physical one.
+	 * @author Lubomir Elko
+	 */
+	private static class PooledStatementHandler implements InvocationHandler {
+
+		/** Pooled connection that created the statement **/
+		private final PooledConnectionHandler connection;
+
+		/** Statement created by the physical connection **/
+		private final Statement statement;
+
+		public PooledStatementHandler(PooledConnectionHandler connection, Statement statement) {
+			this.connection = connection;
+			this.statement = statement;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("getConnection".equals(name)) {
+				return connection.proxy;
+			} else if ("close".equals(name)) {
+				connection.remove((Statement) proxy);
+			} else if ("unwrap".equals(name) && ((Class<?>) args[0]).isInstance(statement)) {
+				// driver specific interfaces, e.g. to configure server-side prepare
+				return statement;
+			} else if ("isWrapperFor".equals(name) && ((Class<?>) args[0]).isInstance(statement)) {
+				return true;
+			}
+			return invokeDelegate(statement, method, args);
+		}
+
+	}
+
+	private static Object invokeDelegate(Object delegate, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(delegate, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+}
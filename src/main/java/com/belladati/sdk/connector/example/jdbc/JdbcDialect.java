@@ -0,0 +1,152 @@
+package com.belladati.sdk.connector.example.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.belladati.sdk.connector.PropertyValueApi;
+
+/**
+ * Database specific part of the JDBC data provider. The generic {@link JdbcProviderSupport} handles connections and
+ * statements, the dialect supplies everything that differs among databases: how to connect, how to tune sessions and
+ * stream large results, fast paths for limiting, counting, sampling and splitting of user defined queries, and the
+ * server features used by change detection, import diagnostics and partitioned imports.
+ * @author Lubomir Elko
+ */
+public interface JdbcDialect {
+
+	/**
+	 * Returns name of the database shown in the log.
+	 * @return Database name
+	 */
+	String getName();
+
+	/**
+	 * Returns class name of the JDBC driver.
+	 * @return Driver class name
+	 */
+	String getDriverClassName();
+
+	/**
+	 * Returns JDBC URL based on the data provider configuration.
+	 * @param properties Data provider configuration
+	 * @return JDBC URL
+	 */
+	String getConnectionUrl(Map<String, PropertyValueApi<?>> properties);
+
+	/**
+	 * Returns properties passed to the JDBC driver when connecting.
+	 * @param properties Data provider configuration
+	 * @return Connection properties understood by the driver
+	 */
+	Properties getConnectionProperties(Map<String, PropertyValueApi<?>> properties);
+
+	/**
+	 * Applies settings to a new session before its first transaction, e.g. timeouts or memory for sorts. Settings that
+	 * the database doesn't know are ignored.
+	 * @param connection Database connection in auto-commit mode
+	 * @param settings Values of settings by their PostgreSQL names, e.g. {@code statement_timeout}
+	 * @throws SQLException if the settings cannot be applied
+	 */
+	void applySessionSettings(Connection connection, Map<String, String> settings) throws SQLException;
+
+	/**
+	 * Configures the given statement to stream its result in batches instead of loading it into memory at once.
+	 * @param connection Database connection with disabled auto-commit
+	 * @param statement Precompiled SQL statement
+	 * @param fetchSize Number of rows fetched at once
+	 * @throws SQLException if the statement cannot be configured
+	 */
+	void configureStreaming(Connection connection, PreparedStatement statement, int fetchSize) throws SQLException;
+
+	/**
+	 * Configures the given statement of an import for transfer of many rows, e.g. to use binary format of values.
+	 * @param statement Precompiled SQL statement
+	 * @throws SQLException if the statement cannot be configured
+	 */
+	void configureBulkTransfer(PreparedStatement statement) throws SQLException;
+
+	/**
+	 * Rewrites the given query, so that the database computes only the number of rows bound to its only parameter.
+	 * @param sql User defined SQL query
+	 * @return Rewritten query with the limit as parameter or {@code null} if the query cannot be rewritten
+	 */
+	String wrapWithLimit(String sql);
+
+	/**
+	 * Returns query reading a random sample of the given query with the limit bound to its only parameter, if the query
+	 * reads from one huge table only and the database can sample it without reading the whole table.
+	 * @param connection Database connection
+	 * @param sql User defined SQL query
+	 * @param limit Maximal number of rows
+	 * @return Sampled query or {@code null} if sampling is not possible or not worth it
+	 * @throws SQLException if the table size cannot be estimated, the transaction may need to be rolled back
+	 */
+	String createSampledQuery(Connection connection, String sql, int limit) throws SQLException;
+
+	/**
+	 * Returns query counting all rows of the given query.
+	 * @param sql User defined SQL query
+	 * @return Count query or {@code null} if the query cannot be rewritten
+	 */
+	String createCountQuery(String sql);
+
+	/**
+	 * Returns query computing fingerprint of all rows of the given query on the server, used to skip imports of
+	 * unchanged data. The fingerprint must be computed from the rows visible in the transaction, so that every committed
+	 * change changes it.
+	 * @param sql User defined SQL query
+	 * @return Query returning the fingerprint in its only column or {@code null} if it is not available
+	 */
+	String createFingerprintQuery(String sql);
+
+	/**
+	 * Returns number of rows of the given query, estimated without reading the rows if the database allows it.
+	 * @param connection Database connection
+	 * @param sql User defined SQL query
+	 * @return Estimated number of rows, negative if it is not available
+	 * @throws SQLException if the estimation fails, the transaction may need to be rolled back
+	 */
+	long estimateRowCount(Connection connection, String sql) throws SQLException;
+
+	/**
+	 * Splits the given query into disjoint queries that together return all its rows and can be read in parallel.
+	 * @param connection Database connection
+	 * @param sql User defined SQL query
+	 * @param partitions Requested number of partitions
+	 * @return Partition queries, possibly fewer than requested, or {@code null} if the query cannot be split
+	 * @throws SQLException if the split fails, the transaction may need to be rolled back
+	 */
+	List<String> createPartitionQueries(Connection connection, String sql, int partitions) throws SQLException;
+
+	/**
+	 * Exports snapshot of the current transaction, so that transactions of other connections reading partitions of the
+	 * same query see the same data. The transaction must stay open while the snapshot is imported.
+	 * @param connection Database connection with disabled auto-commit
+	 * @return Snapshot ID or {@code null} if the database or the isolation level of the transaction doesn't allow it
+	 * @throws SQLException if the export fails, the transaction may need to be rolled back
+	 */
+	String exportSnapshot(Connection connection) throws SQLException;
+
+	/**
+	 * Makes the current transaction read the snapshot exported by {@link #exportSnapshot(Connection)}. It must be
+	 * called before the first query of the transaction.
+	 * @param connection Database connection with disabled auto-commit
+	 * @param snapshot Snapshot ID
+	 * @throws SQLException if the snapshot cannot be imported
+	 */
+	void importSnapshot(Connection connection, String snapshot) throws SQLException;
+
+	/**
+	 * Returns process ID of the server backend serving the given connection, used by diagnostics to find activity and
+	 * locks of an import.
+	 * @param connection Database connection
+	 * @return Process ID or {@code null} if the database has no such backend
+	 * @throws SQLException if the query fails, the transaction may need to be rolled back
+	 */
+	Integer getBackendPid(Connection connection) throws SQLException;
+
+}
@@ -0,0 +1,446 @@
+package com.belladati.sdk.connector.example.jdbc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Scheduler limiting number of concurrent imports in the whole connector and per database host. Imports over the
+ * limits wait in one queue and are admitted in order of arrival; an import waiting for a busy host doesn't block
+ * imports of other hosts.
+ * <p>
+ * Waiting imports are only entries of the queue, no thread is held for them, so thousands of imports can wait at
+ * once. Tasks submitted by {@link #submit(String, Callable)} run on a worker pool that is never larger than the global
+ * limit. Imports of data providers hold a {@link Permit} while their rows are open instead.
+ * <p>
+ * Only {@link #acquire(String)} blocks: data providers must return rows from the calling thread, so that thread
+ * waits for admission of its import, at most for the acquire timeout of 5 minutes by default. Each import waiting
+ * there holds a thread of the caller, which should therefore limit the number of imports it starts at once or use
+ * {@link #request(String)} and {@link #submit(String, Callable)}, which hold no thread while waiting.
+ * @author Lubomir Elko
+ */
+public class JdbcImportScheduler {
+	private final static Log log = LogFactory.getLog(JdbcImportScheduler.class);
+
+	/** Default maximal number of concurrent imports in the whole connector **/
+	public static final int DEFAULT_MAX_IMPORTS = Integer.getInteger("belladati.connector.import.maxConcurrent", 16);
+
+	/** Default maximal number of concurrent imports from one database host **/
+	public static final int DEFAULT_MAX_IMPORTS_PER_HOST = Integer.getInteger("belladati.connector.import.maxPerHost",
+		4);
+
+	/** Default maximal time in milliseconds that {@link #acquire(String)} blocks the calling thread **/
+	public static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = Long.getLong("belladati.connector.import.acquireTimeout",
+		TimeUnit.MINUTES.toMillis(5));
+
+	/** Scheduler shared by all data providers **/
+	private static final JdbcImportScheduler DEFAULT = new JdbcImportScheduler(DEFAULT_MAX_IMPORTS,
+		DEFAULT_MAX_IMPORTS_PER_HOST);
+
+	/** Maximal number of concurrent imports **/
+	private final int maxImports;
+
+	/** Maximal number of concurrent imports from one host, unless the host has its own limit **/
+	private final int maxImportsPerHost;
+
+	/** Limits of hosts that differ from the default one **/
+	private final Map<String, Integer> hostLimits = new HashMap<String, Integer>();
+
+	/** Waiting imports in order of arrival **/
+	private final Set<Ticket> queue = new LinkedHashSet<Ticket>();
+
+	/** Number of running imports per host **/
+	private final Map<String, Integer> running = new HashMap<String, Integer>();
+
+	/** Number of running imports **/
+	private int runningTotal;
+
+	/** Number of admitted imports **/
+	private long admittedCount;
+
+	/** Total time in nanoseconds that admitted imports waited in the queue **/
+	private long totalWaitNanos;
+
+	/** Longest time in nanoseconds that an admitted import waited in the queue **/
+	private long maxWaitNanos;
+
+	/** Worker threads running submitted tasks, idle threads are stopped **/
+	private final ThreadPoolExecutor executor;
+
+	/** Maximal time in milliseconds that {@link #acquire(String)} waits for admission **/
+	private volatile long acquireTimeoutMillis = DEFAULT_ACQUIRE_TIMEOUT_MILLIS;
+
+	/**
+	 * Creates scheduler with the given limits.
+	 * @param maxImports Maximal number of concurrent imports
+	 * @param maxImportsPerHost Maximal number of concurrent imports from one host
+	 */
+	public JdbcImportScheduler(int maxImports, int maxImportsPerHost) {
+		if (maxImports < 1 || maxImportsPerHost < 1) {
+			throw new IllegalArgumentException("Limits must be positive: maxImports=" + maxImports
+				+ ", maxImportsPerHost=" + maxImportsPerHost);
+		}
+		this.maxImports = maxImports;
+		this.maxImportsPerHost = maxImportsPerHost;
+		this.executor = new ThreadPoolExecutor(maxImports, maxImports, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "jdbc-import");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Returns scheduler shared by all data providers. Its limits are set by system properties
+	 * {@code belladati.connector.import.maxConcurrent} and {@code belladati.connector.import.maxPerHost}.
+	 * @return Shared scheduler
+	 */
+	public static JdbcImportScheduler getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Requests permission to run an import from the given host. No thread waits for the permission, the returned future
+	 * is completed when the import is admitted. Cancelling the future removes the request from the queue.
+	 * @param host Database host
+	 * @return Future completed with the permit, the permit must be released when the import ends
+	 */
+	public CompletableFuture<Permit> request(String host) {
+		Ticket ticket = new Ticket(host);
+		synchronized (this) {
+			queue.add(ticket);
+		}
+		dispatch();
+		return ticket.future;
+	}
+
+	/**
+	 * Waits until an import from the given host is admitted, at most for the acquire timeout. The calling thread is
+	 * blocked for the whole wait, see {@link #request(String)} for waiting without a thread.
+	 * @param host Database host
+	 * @return Permit that must be released when the import ends
+	 * @throws IllegalStateException if the import is not admitted in time or the waiting thread is interrupted
+	 */
+	public Permit acquire(String host) {
+		return acquire(host, acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Waits until an import from the given host is admitted, at most for the given time.
+	 * @param host Database host
+	 * @param timeout Maximal time to wait
+	 * @param unit Unit of the timeout
+	 * @return Permit that must be released when the import ends
+	 * @throws IllegalStateException if the import is not admitted in time or the waiting thread is interrupted
+	 */
+	public Permit acquire(String host, long timeout, TimeUnit unit) {
+		CompletableFuture<Permit> future = request(host);
+		try {
+			return future.get(timeout, unit);
+		} catch (TimeoutException e) {
+			if (!future.cancel(false)) {
+				// admitted in the meantime
+				return future.join();
+			}
+			throw new IllegalStateException("Import from " + host + " was not admitted within " + unit.toMillis(timeout)
+				+ " ms, running imports of the host: " + getRunning(host) + "/" + getHostLimit(host) + ", " + this, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (!future.cancel(false)) {
+				// admitted in the meantime
+				future.join().release();
+			}
+			throw new IllegalStateException("Interrupted while waiting for import from " + host, e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Runs the given blocking task on a worker thread as soon as an import from the given host is admitted.
+	 * @param host Database host
+	 * @param task Task to run
+	 * @return Future completed with the result of the task, cancelling it before admission removes the task from the
+	 *         queue
+	 */
+	public <T> CompletableFuture<T> submit(String host, final Callable<T> task) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final CompletableFuture<Permit> admission = request(host);
+		admission.thenAcceptAsync(new Consumer<Permit>() {
+			@Override
+			public void accept(Permit permit) {
+				try {
+					if (!result.isDone()) {
+						result.complete(task.call());
+					}
+				} catch (Throwable e) {
+					result.completeExceptionally(e);
+				} finally {
+					permit.release();
+				}
+			}
+		}, executor);
+		result.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T value, Throwable error) {
+				if (error instanceof CancellationException) {
+					admission.cancel(false);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Sets limit of concurrent imports from the given host, that differs from the default one.
+	 * @param host Database host
+	 * @param limit Maximal number of concurrent imports or {@code null} to use the default limit
+	 */
+	public void setHostLimit(String host, Integer limit) {
+		synchronized (this) {
+			if (limit == null) {
+				hostLimits.remove(host);
+			} else {
+				hostLimits.put(host, limit);
+			}
+		}
+		dispatch();
+	}
+
+	/**
+	 * Admits waiting imports in order of arrival while the limits allow it. Futures are completed outside of the lock,
+	 * since completion runs dependent actions of the callers.
+	 */
+	private void dispatch() {
+		List<Ticket> admitted = new ArrayList<Ticket>();
+		synchronized (this) {
+			final long now = System.nanoTime();
+			for (Iterator<Ticket> iterator = queue.iterator(); iterator.hasNext() && runningTotal < maxImports;) {
+				Ticket ticket = iterator.next();
+				if (ticket.future.isDone()) {
+					// cancelled by the caller
+					iterator.remove();
+				} else if (getRunning(ticket.host) < getHostLimit(ticket.host)) {
+					iterator.remove();
+					runningTotal++;
+					running.put(ticket.host, getRunning(ticket.host) + 1);
+					long wait = now - ticket.created;
+					admittedCount++;
+					totalWaitNanos += wait;
+					maxWaitNanos = Math.max(maxWaitNanos, wait);
+					admitted.add(ticket);
+				}
+			}
+		}
+		for (Ticket ticket : admitted) {
+			Permit permit = new Permit(ticket.host);
+			if (!ticket.future.complete(permit)) {
+				permit.release();
+			}
+		}
+	}
+
+	private synchronized void release(String host) {
+		runningTotal--;
+		int count = getRunning(host) - 1;
+		if (count > 0) {
+			running.put(host, count);
+		} else {
+			running.remove(host);
+		}
+	}
+
+	private synchronized int getHostLimit(String host) {
+		Integer limit = hostLimits.get(host);
+		return limit != null ? limit : maxImportsPerHost;
+	}
+
+	/**
+	 * Returns number of running imports from the given host.
+	 * @param host Database host
+	 * @return Number of running imports
+	 */
+	public synchronized int getRunning(String host) {
+		Integer count = running.get(host);
+		return count != null ? count : 0;
+	}
+
+	/**
+	 * Returns number of running imports.
+	 * @return Number of running imports
+	 */
+	public synchronized int getRunning() {
+		return runningTotal;
+	}
+
+	/**
+	 * Returns number of imports waiting in the queue.
+	 * @return Queue depth
+	 */
+	public synchronized int getQueueDepth() {
+		int depth = 0;
+		for (Ticket ticket : queue) {
+			if (!ticket.future.isDone()) {
+				depth++;
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Returns number of imports from the given host waiting in the queue.
+	 * @param host Database host
+	 * @return Queue depth
+	 */
+	public synchronized int getQueueDepth(String host) {
+		int depth = 0;
+		for (Ticket ticket : queue) {
+			if (ticket.host.equals(host) && !ticket.future.isDone()) {
+				depth++;
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Returns number of imports admitted since the scheduler was created.
+	 * @return Number of admitted imports
+	 */
+	public synchronized long getAdmittedCount() {
+		return admittedCount;
+	}
+
+	/**
+	 * Returns average time that admitted imports waited in the queue.
+	 * @return Average wait time in milliseconds
+	 */
+	public synchronized double getAverageWaitMillis() {
+		return admittedCount > 0 ? totalWaitNanos / 1e6d / admittedCount : 0d;
+	}
+
+	/**
+	 * Returns longest time that an admitted import waited in the queue.
+	 * @return Maximal wait time in milliseconds
+	 */
+	public synchronized double getMaxWaitMillis() {
+		return maxWaitNanos / 1e6d;
+	}
+
+	/**
+	 * Returns maximal time that {@link #acquire(String)} waits for admission.
+	 * @return Timeout in milliseconds, set by system property {@code belladati.connector.import.acquireTimeout}
+	 */
+	public long getAcquireTimeoutMillis() {
+		return acquireTimeoutMillis;
+	}
+
+	/**
+	 * Sets maximal time that {@link #acquire(String)} waits for admission. Imports waiting longer fail, so that permits
+	 * that are never released don't block imports from their host forever and waiting threads are returned to the
+	 * caller in a few minutes.
+	 * @param acquireTimeoutMillis Timeout in milliseconds
+	 */
+	public void setAcquireTimeoutMillis(long acquireTimeoutMillis) {
+		this.acquireTimeoutMillis = acquireTimeoutMillis;
+	}
+
+	public int getMaxImports() {
+		return maxImports;
+	}
+
+	public int getMaxImportsPerHost() {
+		return maxImportsPerHost;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.ENGLISH, "JdbcImportScheduler[running=%d/%d, queued=%d, admitted=%d, avgWait=%.1f ms,"
+			+ " maxWait=%.1f ms]", runningTotal, maxImports, getQueueDepth(), admittedCount, getAverageWaitMillis(),
+			getMaxWaitMillis());
+	}
+
+	/**
+	 * Request of one import waiting in the queue.
+	 * @author Lubomir Elko
+	 */
+	private static class Ticket {
+
+		/** Database host **/
+		private final String host;
+
+		/** Time when the import was requested **/
+		private final long created = System.nanoTime();
+
+		/** Future completed when the import is admitted **/
+		private final CompletableFuture<Permit> future = new CompletableFuture<Permit>();
+
+		public Ticket(String host) {
+			this.host = host;
+		}
+
+	}
+
+	/**
+	 * Permission to run one import. It must be released exactly once when the import ends, further calls of
+	 * {@link #release()} are ignored.
+	 * @author Lubomir Elko
+	 */
+	public class Permit implements AutoCloseable {
+
+		/** Database host **/
+		private final String host;
+
+		/** Flag if the permit has been released **/
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private Permit(String host) {
+			this.host = host;
+		}
+
+		/**
+		 * Releases the permit, so that the next waiting import can be admitted.
+		 */
+		public void release() {
+			if (released.compareAndSet(false, true)) {
+				JdbcImportScheduler.this.release(host);
+				dispatch();
+				log.debug("Import from " + host + " finished, " + JdbcImportScheduler.this);
+			}
+		}
+
+		@Override
+		public void close() {
+			release();
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+	}
+
+}
@@ -0,0 +1,386 @@
+package com.belladati.sdk.connector.example.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.belladati.sdk.connector.DataProviderApi;
+import com.belladati.sdk.connector.PropertyValueApi;
+
+/**
+ * Generic core of data providers reading user defined SQL queries through JDBC. It manages the data source with a
+ * pool of its connections and prepares statements, database specific fast paths are delegated to the
+ * {@link JdbcDialect}. Every fast path falls back to plain JDBC when the dialect cannot handle the query.
+ * @author Lubomir Elko
+ */
+public class JdbcProviderSupport {
+	private final static Log log = LogFactory.getLog(JdbcProviderSupport.class);
+
+	/** Data provider using this object, its configuration is read on every use **/
+	private final DataProviderApi<?> provider;
+
+	/** Database specific part of the data provider **/
+	private volatile JdbcDialect dialect;
+
+	/** Factory for connections to the database that this {@link DataSource} object represents **/
+	private DataSource dataSource;
+
+	/** Configuration used to create {@link DataSource} **/
+	private Properties dataSourceProperties;
+
+	/** Data source managed outside of this object, used instead of the configuration when set **/
+	private volatile DataSource externalDataSource;
+
+	/** Pool of connections of the data source created from configuration **/
+	private final JdbcConnectionPool connectionPool = new JdbcConnectionPool();
+
+	/**
+	 * Creates core of data provider for the given database.
+	 * @param dialect Database specific part of the data provider
+	 * @param provider Data provider using this object
+	 */
+	public JdbcProviderSupport(JdbcDialect dialect, DataProviderApi<?> provider) {
+		this.dialect = dialect;
+		this.provider = provider;
+	}
+
+	public JdbcDialect getDialect() {
+		return dialect;
+	}
+
+	/**
+	 * Sets database specific part of the data provider. Data source created for the previous dialect is released.
+	 * @param dialect Database dialect
+	 */
+	public synchronized void setDialect(JdbcDialect dialect) {
+		this.dialect = dialect;
+		cleanup();
+		dataSource = null;
+	}
+
+	/**
+	 * Sets data source managed outside of this object, e.g. a connection pool of the application. Configuration is
+	 * ignored while the data source is set and its connections are not pooled by this object.
+	 * @param dataSource Data source or {@code null} to create the data source from configuration
+	 */
+	public void setDataSource(DataSource dataSource) {
+		this.externalDataSource = dataSource;
+	}
+
+	/**
+	 * Returns data source for the current configuration. It is created again when the configuration changes.
+	 * @return Data source
+	 */
+	public synchronized DataSource getDataSource() {
+		if (externalDataSource != null) {
+			return externalDataSource;
+		}
+		Properties currentProperties = getCurrentProperties();
+		if (dataSource == null || dataSourceProperties == null || !dataSourceProperties.equals(currentProperties)) {
+			cleanup();
+			dataSourceProperties = currentProperties;
+			dataSource = createDataSource();
+		}
+		return dataSource;
+	}
+
+	/**
+	 * Borrows connection from the pool of the current data source. Connections of a data source managed outside of this
+	 * object are not pooled, the initializer is applied to each of them.
+	 * @param sessionKey Key of session settings applied by the initializer, connections are reused with the same key
+	 *            only
+	 * @param initializer Action applying session settings to a new connection or {@code null}
+	 * @return Database connection that must be closed when it is not needed anymore
+	 * @throws SQLException if the connection cannot be created
+	 */
+	public Connection getConnection(String sessionKey, Consumer<Connection> initializer) throws SQLException {
+		final DataSource external = externalDataSource;
+		if (external != null) {
+			Connection connection = external.getConnection();
+			if (initializer != null) {
+				initializer.accept(connection);
+			}
+			return connection;
+		}
+		return connectionPool.getConnection(getDataSource(), sessionKey, initializer);
+	}
+
+	/**
+	 * Returns pool of connections of the data source created from configuration.
+	 * @return Connection pool with its statistics
+	 */
+	public JdbcConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
+	/**
+	 * Returns JDBC URL based on the current configuration.
+	 * @return JDBC URL
+	 */
+	public String getConnectionUrl() {
+		return dialect.getConnectionUrl(provider.getProperties());
+	}
+
+	/**
+	 * Returns database host of the current configuration, used to limit concurrent imports per host.
+	 * @return Host and port from the JDBC URL, or the whole URL for embedded databases
+	 */
+	public String getHostKey() {
+		final String url = getConnectionUrl();
+		final int start = url.indexOf("//");
+		if (start == -1) {
+			return url;
+		}
+		final int end = url.indexOf('/', start + 2);
+		return end == -1 ? url.substring(start + 2) : url.substring(start + 2, end);
+	}
+
+	private DataSource createDataSource() {
+		Properties connectionProperties = dialect.getConnectionProperties(provider.getProperties());
+		DriverManagerDataSource ds = new DriverManagerDataSource();
+		ds.setDriverClassName(dialect.getDriverClassName());
+		ds.setUrl(getConnectionUrl());
+
+		if (connectionProperties.get("user") != null) {
+			ds.setUsername(connectionProperties.getProperty("user"));
+		}
+		if (connectionProperties.get("password") != null) {
+			ds.setPassword(connectionProperties.getProperty("password"));
+		}
+		ds.setConnectionProperties(connectionProperties);
+
+		log.info("Created DriverManagerDataSource for " + dialect.getName() + " with URL: " + ds.getUrl());
+		return ds;
+	}
+
+	/**
+	 * Returns values of the current configuration, used to find out if the configuration has changed.
+	 * @return Values of properties that are set
+	 */
+	public Properties getCurrentProperties() {
+		Properties p = new Properties();
+		for (Entry<String, PropertyValueApi<?>> entry : provider.getProperties().entrySet()) {
+			if (entry.getValue().getValueOrDefault() != null) {
+				p.put(entry.getKey(), entry.getValue().getValueOrDefaultAsString());
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * Creates statement for the given query.
+	 * @param connection Database connection
+	 * @param sql SQL query
+	 * @param limit Maximal number of rows or -1 for all rows
+	 * @return Precompiled SQL statement closed together with its result set
+	 * @throws SQLException if the statement cannot be created
+	 */
+	public PreparedStatement prepareStatement(Connection connection, String sql, int limit) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement(sql);
+		ps.closeOnCompletion();
+		if (limit != -1) {
+			ps.setMaxRows(limit);
+		}
+		return ps;
+	}
+
+	/**
+	 * Creates statement with the limit pushed into the SQL query, so that the database can stop early. The limit is
+	 * bound as parameter, so that the statement is the same for any limit. If the query cannot be rewritten, the
+	 * original query is used and rows are limited by the driver only.
+	 * @param connection Database connection
+	 * @param sql User defined SQL query
+	 * @param limit Maximal number of rows
+	 * @return Precompiled SQL statement
+	 * @throws SQLException if the statement cannot be created
+	 */
+	public PreparedStatement prepareLimitedStatement(Connection connection, String sql, int limit) throws SQLException {
+		String limitedSql = limit >= 0 ? dialect.wrapWithLimit(sql) : null;
+		if (limitedSql == null) {
+			log.info("Query cannot be rewritten, limiting rows on client side");
+			return prepareStatement(connection, sql, limit);
+		}
+		PreparedStatement ps = prepareStatement(connection, limitedSql, limit);
+		ps.setInt(1, limit);
+		return ps;
+	}
+
+	/**
+	 * Configures the given statement to stream its result in batches of the given size.
+	 * @param connection Database connection with disabled auto-commit
+	 * @param statement Precompiled SQL statement
+	 * @param fetchSize Number of rows fetched at once or {@code null} to keep driver defaults
+	 * @throws SQLException if the statement cannot be configured
+	 */
+	public void configureStreaming(Connection connection, PreparedStatement statement, Integer fetchSize)
+		throws SQLException {
+		if (fetchSize != null) {
+			dialect.configureStreaming(connection, statement, fetchSize);
+		}
+	}
+
+	/**
+	 * Configures the given statement for transfer of many rows, failure is logged only, since the statement remains
+	 * usable with driver defaults.
+	 * @param statement Precompiled SQL statement of an import
+	 */
+	public void configureBulkTransfer(PreparedStatement statement) {
+		try {
+			dialect.configureBulkTransfer(statement);
+		} catch (SQLException e) {
+			log.warn("Cannot configure transfer of import rows", e);
+		}
+	}
+
+	/**
+	 * Creates statement counting all rows of the given query.
+	 * @param connection Database connection
+	 * @param sql User defined SQL query
+	 * @return Precompiled SQL statement or {@code null} if the rows cannot be counted
+	 */
+	public PreparedStatement prepareCountStatement(Connection connection, String sql) {
+		final String countSql = dialect.createCountQuery(sql);
+		if (countSql == null) {
+			return null;
+		}
+		try {
+			return prepareStatement(connection, countSql, 1);
+		} catch (SQLException e) {
+			log.error("Count SQL error: " + countSql, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns number of rows of the given query estimated by the database. Failed estimation is rolled back, so that the
+	 * transaction remains usable.
+	 * @param connection Database connection
+	 * @param sql User defined SQL query
+	 * @return Estimated number of rows, negative if it is not available
+	 */
+	public long estimateRowCount(Connection connection, String sql) {
+		try {
+			return dialect.estimateRowCount(connection, sql);
+		} catch (SQLException e) {
+			log.warn("Cannot estimate number of rows", e);
+			rollback(connection);
+			return -1;
+		}
+	}
+
+	/**
+	 * Splits the given query into disjoint queries that can be read in parallel. Failed split is rolled back, so that
+	 * the transaction remains usable.
+	 * @param connection Database connection
+	 * @param sql User defined SQL query
+	 * @param partitions Requested number of partitions
+	 * @return Partition queries, the original query only if it cannot be split
+	 */
+	public List<String> createPartitionQueries(Connection connection, String sql, int partitions) {
+		if (partitions > 1) {
+			try {
+				List<String> queries = dialect.createPartitionQueries(connection, sql, partitions);
+				if (queries != null && !queries.isEmpty()) {
+					return queries;
+				}
+			} catch (SQLException e) {
+				log.warn("Cannot split query into partitions", e);
+				rollback(connection);
+			}
+			log.info("Query cannot be split, reading it as one partition");
+		}
+		return Collections.singletonList(sql);
+	}
+
+	/**
+	 * Creates query reading random sample of the given query, if the dialect can sample it. Failed estimation of the
+	 * table size is rolled back, so that the transaction remains usable.
+	 * @param connection Database connection
+	 * @param sql User defined SQL query
+	 * @param limit Maximal number of rows
+	 * @return Sampled query with the limit as parameter or {@code null} if sampling is not possible or not worth it
+	 */
+	public String createSampledQuery(Connection connection, String sql, int limit) {
+		try {
+			return dialect.createSampledQuery(connection, sql, limit);
+		} catch (SQLException e) {
+			log.warn("Cannot estimate size of the table, sampling is not used", e);
+			rollback(connection);
+			return null;
+		}
+	}
+
+	/**
+	 * Exports snapshot of the current transaction for connections reading other partitions of the same query. Failed
+	 * export is rolled back, so that the transaction remains usable, and the partitions read their own snapshots.
+	 * @param connection Database connection with disabled auto-commit
+	 * @return Snapshot ID or {@code null} if the snapshot cannot be shared
+	 */
+	public String exportSnapshot(Connection connection) {
+		try {
+			String snapshot = dialect.exportSnapshot(connection);
+			if (snapshot == null) {
+				log.info("Snapshot cannot be exported, partitions read their own snapshots");
+			}
+			return snapshot;
+		} catch (SQLException e) {
+			log.warn("Cannot export snapshot, partitions read their own snapshots", e);
+			rollback(connection);
+			return null;
+		}
+	}
+
+	/**
+	 * Makes the current transaction read the exported snapshot, it must be called before the first query of the
+	 * transaction.
+	 * @param connection Database connection with disabled auto-commit
+	 * @param snapshot Snapshot ID returned by {@link #exportSnapshot(Connection)}
+	 * @throws SQLException if the snapshot cannot be imported, e.g. because the exporting transaction has ended
+	 */
+	public void importSnapshot(Connection connection, String snapshot) throws SQLException {
+		dialect.importSnapshot(connection, snapshot);
+	}
+
+	/**
+	 * Returns process ID of the server backend serving the given connection. Failed query is rolled back, so that the
+	 * transaction remains usable.
+	 * @param connection Database connection
+	 * @return Process ID or {@code null} if it cannot be found out
+	 */
+	public Integer getBackendPid(Connection connection) {
+		try {
+			return dialect.getBackendPid(connection);
+		} catch (SQLException e) {
+			log.warn("Cannot get backend process ID, diagnostics will not contain server activity", e);
+			rollback(connection);
+			return null;
+		}
+	}
+
+	private void rollback(Connection connection) {
+		try {
+			// failed statement aborts the whole transaction
+			connection.rollback();
+		} catch (SQLException ex) {}
+	}
+
+	/**
+	 * Releases connections held by the data source created by this object. Borrowed connections are closed when they
+	 * are returned.
+	 */
+	public synchronized void cleanup() {
+		connectionPool.clear();
+	}
+
+}
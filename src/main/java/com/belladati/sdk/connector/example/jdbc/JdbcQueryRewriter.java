@@ -0,0 +1,282 @@
+package com.belladati.sdk.connector.example.jdbc;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites user defined SQL queries, so that the database can stop early instead of computing the whole result. The
+ * rewrite is done only when the query is a single read-only statement, otherwise the original query is kept and the
+ * caller should fall back to client-side truncation. Rewrites use standard SQL, so they are shared by all
+ * {@link JdbcDialect}s, database specific clauses are added by the dialects.
+ * @author Lubomir Elko
+ */
+public final class JdbcQueryRewriter {
+
+	/** Keywords that can start a query which may be wrapped into a subquery **/
+	private static final String[] WRAPPABLE_KEYWORDS = { "select", "with", "values", "table" };
+
+	/** Keywords that make a query unsafe for wrapping into a subquery **/
+	private static final String[] UNSAFE_KEYWORDS = { "insert", "update", "delete", "merge", "into" };
+
+	/** Simple query reading from one table, optionally filtered: SELECT ... FROM table [alias] [WHERE ...] **/
+	private static final Pattern SINGLE_TABLE_QUERY = Pattern.compile(
+		"^\\s*select\\s+(.+?)\\s+from\\s+((?:\"[^\"]+\"|[a-z_][\\w$]*)(?:\\.(?:\"[^\"]+\"|[a-z_][\\w$]*))?)"
+			+ "(\\s+(?:as\\s+)?(?!where\\b)[a-z_][\\w$]*)?(\\s+where\\s+.+)?\\s*$",
+		Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	/** Groups of {@link #SINGLE_TABLE_QUERY} containing table name, its alias and condition **/
+	private static final int TABLE_GROUP = 2, ALIAS_GROUP = 3, WHERE_GROUP = 4;
+
+	/** Ordering of the query result **/
+	private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+	/** Keywords that must not appear in a query read by {@link #getSingleTable(String)} **/
+	private static final Pattern NOT_SINGLE_TABLE = Pattern.compile(
+		"\\b(join|union|intersect|except|group\\s+by|having|distinct|limit|offset|fetch|for\\s+update|for\\s+share|window|over)\\b",
+		Pattern.CASE_INSENSITIVE);
+
+	private JdbcQueryRewriter() {}
+
+	/**
+	 * Returns the given query without trailing semicolons and whitespace.
+	 * @param sql User defined SQL query
+	 * @return Query that can be embedded into another statement or {@code null} if the query contains more than one
+	 *         statement
+	 */
+	public static String stripTerminator(String sql) {
+		if (sql == null) {
+			return null;
+		}
+		String code = maskLiterals(sql);
+		int end = code.length();
+		while (end > 0 && (Character.isWhitespace(code.charAt(end - 1)) || code.charAt(end - 1) == ';')) {
+			end--;
+		}
+		if (code.substring(0, end).indexOf(';') != -1) {
+			// semicolon inside of the query means multiple statements
+			return null;
+		}
+		return sql.substring(0, end);
+	}
+
+	/**
+	 * Checks if the given query is a single read-only statement that can be safely used as a subquery.
+	 * @param sql User defined SQL query
+	 * @return {@code true} if the query can be wrapped, {@code false} otherwise
+	 */
+	public static boolean isWrappable(String sql) {
+		String query = stripTerminator(sql);
+		if (query == null) {
+			return false;
+		}
+		String code = maskLiterals(query).toLowerCase(Locale.ENGLISH);
+		String keyword = firstKeyword(code);
+		if (keyword == null || !contains(WRAPPABLE_KEYWORDS, keyword)) {
+			return false;
+		}
+		for (String unsafe : UNSAFE_KEYWORDS) {
+			if (Pattern.compile("\\b" + unsafe + "\\b").matcher(code).find()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Wraps the given query with {@code LIMIT}, so that the planner knows how many rows are needed. The limit is the
+	 * only parameter of the rewritten query, so that previews with any limit share one prepared statement.
+	 * @param sql User defined SQL query
+	 * @return Rewritten query with the limit as parameter or {@code null} if the query cannot be rewritten
+	 */
+	public static String wrapWithLimit(String sql) {
+		if (!isWrappable(sql)) {
+			return null;
+		}
+		// query is placed on separate lines, so that trailing line comments don't hide the closing parenthesis
+		return "SELECT * FROM (\n" + stripTerminator(sql) + "\n) AS preview LIMIT ?";
+	}
+
+	/**
+	 * Wraps the given query with {@code count(*)}, so that the number of rows is computed on the server.
+	 * @param sql User defined SQL query
+	 * @return Count query or {@code null} if the query cannot be rewritten
+	 */
+	public static String wrapWithCount(String sql) {
+		if (!isWrappable(sql)) {
+			return null;
+		}
+		return "SELECT count(*) FROM (\n" + stripTerminator(sql) + "\n) AS t";
+	}
+
+	/**
+	 * Adds condition to a simple single-table query, e.g. to read only one partition of the table. Existing condition
+	 * of the query is kept. Ordered queries are not supported, since the order would be lost among partitions anyway.
+	 * @param sql User defined SQL query
+	 * @param condition SQL condition using columns of the table without qualification
+	 * @return Rewritten query or {@code null} if the query is not a simple single-table query
+	 */
+	public static String addCondition(String sql, String condition) {
+		if (getSingleTable(sql) == null) {
+			return null;
+		}
+		String query = stripTerminator(sql);
+		String code = maskLiterals(query);
+		if (ORDER_BY.matcher(code).find()) {
+			return null;
+		}
+		Matcher matcher = SINGLE_TABLE_QUERY.matcher(code);
+		if (!matcher.matches()) {
+			return null;
+		}
+		if (matcher.group(WHERE_GROUP) == null) {
+			return query + "\nWHERE " + condition;
+		}
+		int whereEnd = matcher.start(WHERE_GROUP) + matcher.group(WHERE_GROUP).toLowerCase(Locale.ENGLISH).indexOf("where")
+			+ "where".length();
+		return query.substring(0, whereEnd) + " (" + condition + ") AND (" + query.substring(whereEnd) + "\n)";
+	}
+
+	/**
+	 * Returns name of the table if the given query reads from one table only, without joins, grouping or subqueries, so
+	 * that it can be split or sampled by table blocks or rows.
+	 * @param sql User defined SQL query
+	 * @return Table name as written in the query or {@code null} if the query is not a simple single-table query
+	 */
+	public static String getSingleTable(String sql) {
+		if (!isWrappable(sql)) {
+			return null;
+		}
+		String query = stripTerminator(sql);
+		String code = maskLiterals(query);
+		if (NOT_SINGLE_TABLE.matcher(code).find() || hasSubquery(code)) {
+			return null;
+		}
+		Matcher matcher = SINGLE_TABLE_QUERY.matcher(code);
+		if (!matcher.matches()) {
+			return null;
+		}
+		return query.substring(matcher.start(TABLE_GROUP), matcher.end(TABLE_GROUP));
+	}
+
+	/**
+	 * Inserts the given clause after the table of a simple single-table query and its alias, e.g. a sampling clause.
+	 * @param sql User defined SQL query
+	 * @param clause Clause placed after the table, it should start with a space
+	 * @return Rewritten query or {@code null} if the query is not a simple single-table query
+	 */
+	public static String addTableClause(String sql, String clause) {
+		if (getSingleTable(sql) == null) {
+			return null;
+		}
+		String query = stripTerminator(sql);
+		Matcher matcher = SINGLE_TABLE_QUERY.matcher(maskLiterals(query));
+		if (!matcher.matches()) {
+			return null;
+		}
+		int insertAt = matcher.group(ALIAS_GROUP) != null ? matcher.end(ALIAS_GROUP) : matcher.end(TABLE_GROUP);
+		return query.substring(0, insertAt) + clause + query.substring(insertAt);
+	}
+
+	/**
+	 * Checks if parentheses in the given code contain a nested {@code SELECT}.
+	 * @param code Query with masked literals
+	 * @return {@code true} if there is a subquery
+	 */
+	private static boolean hasSubquery(String code) {
+		return Pattern.compile("\\(\\s*(select|with|values)\\b", Pattern.CASE_INSENSITIVE).matcher(code).find();
+	}
+
+	/**
+	 * Returns first keyword of the given code, skipping opening parentheses.
+	 * @param code Query with masked literals
+	 * @return First keyword or {@code null} if there is none
+	 */
+	private static String firstKeyword(String code) {
+		Matcher matcher = Pattern.compile("^[\\s(]*([a-z]+)").matcher(code);
+		return matcher.find() ? matcher.group(1) : null;
+	}
+
+	private static boolean contains(String[] values, String value) {
+		for (String v : values) {
+			if (v.equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Replaces content of string literals, quoted identifiers, dollar-quoted strings and comments with spaces, keeping
+	 * the length and positions of the original query. Keywords and semicolons found in the result are real ones.
+	 * @param sql SQL query
+	 * @return Query with masked literals and comments
+	 */
+	static String maskLiterals(String sql) {
+		StringBuilder sb = new StringBuilder(sql);
+		int i = 0;
+		final int length = sql.length();
+		while (i < length) {
+			char c = sql.charAt(i);
+			int end;
+			if (c == '\'') {
+				end = skipQuoted(sql, i, '\'');
+				mask(sb, i + 1, end - 1);
+			} else if (c == '"') {
+				// identifiers are kept, only characters that could confuse the parser are masked
+				end = skipQuoted(sql, i, '"');
+				for (int j = i + 1; j < end - 1; j++) {
+					if (!Character.isLetterOrDigit(sql.charAt(j)) && sql.charAt(j) != '_') {
+						sb.setCharAt(j, '_');
+					}
+				}
+			} else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+				end = sql.indexOf('\n', i);
+				end = end == -1 ? length : end;
+				mask(sb, i, end);
+			} else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+				end = sql.indexOf("*/", i + 2);
+				end = end == -1 ? length : end + 2;
+				mask(sb, i, end);
+			} else if (c == '$' && (i == 0 || !Character.isLetterOrDigit(sql.charAt(i - 1)))) {
+				Matcher tag = Pattern.compile("\\$([a-zA-Z_][\\w]*)?\\$").matcher(sql);
+				if (tag.find(i) && tag.start() == i) {
+					int close = sql.indexOf(tag.group(), tag.end());
+					end = close == -1 ? length : close + tag.group().length();
+					mask(sb, tag.end(), close == -1 ? length : close);
+				} else {
+					end = i + 1;
+				}
+			} else {
+				end = i + 1;
+			}
+			i = end;
+		}
+		return sb.toString();
+	}
+
+	private static int skipQuoted(String sql, int start, char quote) {
+		int i = start + 1;
+		while (i < sql.length()) {
+			if (sql.charAt(i) == quote) {
+				if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+					// escaped quote
+					i += 2;
+					continue;
+				}
+				return i + 1;
+			}
+			i++;
+		}
+		return sql.length();
+	}
+
+	private static void mask(StringBuilder sb, int from, int to) {
+		for (int i = Math.max(from, 0); i < to && i < sb.length(); i++) {
+			if (sb.charAt(i) != '\n') {
+				sb.setCharAt(i, ' ');
+			}
+		}
+	}
+
+}
@@ -0,0 +1,227 @@
+package com.belladati.sdk.connector.example.sql;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Detects whether result of a query has changed since the last successful import. A fingerprint of the result is
+ * computed on the server and compared with the fingerprint stored locally for the same data source.
+ * <p>
+ * The fingerprint is computed from the rows visible in the transaction of the import, so every committed change is
+ * seen. Table statistics such as {@code pg_stat_all_tables} are not used, since their counters are updated
+ * asynchronously and outside of transactions, and a recently committed change could be skipped without notice.
+ * @author Lubomir Elko
+ */
+public class PostgreChangeDetector {
+	private final static Log log = LogFactory.getLog(PostgreChangeDetector.class);
+
+	/** System property with directory where fingerprints are stored **/
+	public static final String STORE_DIRECTORY_PROPERTY = "belladati.connector.fingerprints.dir";
+
+	/** Name of the file with stored fingerprints **/
+	private static final String STORE_FILE = "postgre-fingerprints.properties";
+
+	/** Lock guarding access to the fingerprint file **/
+	private static final Object STORE_LOCK = new Object();
+
+	/**
+	 * Ways of computing the fingerprint.
+	 */
+	public enum Mode {
+		/** Change detection is disabled **/
+		NONE,
+		/**
+		 * Order-independent hash of all rows, computed by the server without transferring them. The whole query runs on
+		 * the server to compute the hash, so when data has changed, the query runs twice: for the fingerprint and for
+		 * the transfer.
+		 **/
+		HASH;
+
+		/**
+		 * Returns mode with the given name, ignoring case.
+		 * @param value Name of the mode
+		 * @return Mode or {@link #NONE} if the value is empty or unknown
+		 */
+		public static Mode parse(String value) {
+			if (value != null) {
+				for (Mode mode : values()) {
+					if (mode.name().equalsIgnoreCase(value.trim())) {
+						return mode;
+					}
+				}
+			}
+			return NONE;
+		}
+	}
+
+	/** Way of computing the fingerprint **/
+	private final Mode mode;
+
+	/** Key identifying the data source and query in the store **/
+	private final String key;
+
+	/** File with stored fingerprints **/
+	private final File storeFile;
+
+	/** Query computing the fingerprint on the server **/
+	private final String fingerprintQuery;
+
+	/**
+	 * Creates change detector for the given data source and query.
+	 * @param mode Way of computing the fingerprint
+	 * @param dataSourceKey Unique identification of the data source, e.g. connection URL and user
+	 * @param sql User defined SQL query
+	 * @param fingerprintQuery Query computing the fingerprint, created by
+	 *            {@link com.belladati.sdk.connector.example.jdbc.JdbcDialect#createFingerprintQuery(String)}
+	 */
+	public PostgreChangeDetector(Mode mode, String dataSourceKey, String sql, String fingerprintQuery) {
+		this.mode = mode;
+		this.key = mode.name().toLowerCase(Locale.ENGLISH) + "." + md5(dataSourceKey + "\n" + sql);
+		this.storeFile = new File(getStoreDirectory(), STORE_FILE);
+		this.fingerprintQuery = fingerprintQuery;
+	}
+
+	/**
+	 * Computes fingerprint of the query result on the server. It must be executed in the same transaction as the data
+	 * query, so that both see the same snapshot.
+	 * @param connection Database connection
+	 * @return Fingerprint or {@code null} if it cannot be computed
+	 * @throws SQLException if the fingerprint query fails
+	 */
+	public String computeFingerprint(Connection connection) throws SQLException {
+		if (mode == Mode.NONE || fingerprintQuery == null) {
+			return null;
+		}
+		PreparedStatement ps = connection.prepareStatement(fingerprintQuery);
+		try {
+			ResultSet rs = ps.executeQuery();
+			try {
+				return rs.next() ? rs.getString(1) : null;
+			} finally {
+				rs.close();
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * Checks if the given fingerprint is the same as the one stored after the last successful import.
+	 * @param fingerprint Current fingerprint
+	 * @return {@code true} if the data has not changed
+	 */
+	public boolean isUnchanged(String fingerprint) {
+		return fingerprint != null && fingerprint.equals(loadStore().getProperty(key));
+	}
+
+	/**
+	 * Stores the given fingerprint, it should be called after the import has been successfully finished.
+	 * @param fingerprint Fingerprint of imported data
+	 */
+	public void storeFingerprint(String fingerprint) {
+		if (fingerprint == null) {
+			return;
+		}
+		synchronized (STORE_LOCK) {
+			Properties store = loadStore();
+			store.setProperty(key, fingerprint);
+			writeStore(store);
+		}
+	}
+
+	/**
+	 * Removes stored fingerprint, so that the next import transfers all data.
+	 */
+	public void clearFingerprint() {
+		synchronized (STORE_LOCK) {
+			Properties store = loadStore();
+			if (store.remove(key) != null) {
+				writeStore(store);
+			}
+		}
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	private Properties loadStore() {
+		Properties store = new Properties();
+		synchronized (STORE_LOCK) {
+			if (storeFile.isFile()) {
+				try {
+					InputStream in = new FileInputStream(storeFile);
+					try {
+						store.load(in);
+					} finally {
+						in.close();
+					}
+				} catch (IOException e) {
+					log.warn("Cannot load fingerprints from " + storeFile, e);
+				}
+			}
+		}
+		return store;
+	}
+
+	private void writeStore(Properties store) {
+		try {
+			File dir = storeFile.getParentFile();
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Cannot create directory " + dir);
+			}
+			// write to temporary file first, so that the store is never left half written
+			File tmp = File.createTempFile(STORE_FILE, ".tmp", dir);
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				store.store(out, "Fingerprints of the last imported PostgreSQL data");
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Cannot write fingerprints to " + storeFile, e);
+		}
+	}
+
+	private static File getStoreDirectory() {
+		String dir = System.getProperty(STORE_DIRECTORY_PROPERTY);
+		if (dir == null || dir.isEmpty()) {
+			return new File(System.getProperty("java.io.tmpdir"), "belladati-connector");
+		}
+		return new File(dir);
+	}
+
+	private static String md5(String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(Charset.forName("UTF-8")));
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b & 0xff));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
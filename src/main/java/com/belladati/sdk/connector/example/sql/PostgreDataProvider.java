@@ -6,39 +6,106 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import javax.sql.DataSource;
 
-import org.postgresql.Driver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
 
 import com.belladati.sdk.connector.ConnectorUtils;
 import com.belladati.sdk.connector.DataProviderApi;
 import com.belladati.sdk.connector.ProgressBarApi;
 import com.belladati.sdk.connector.PropertyValueApi;
 import com.belladati.sdk.connector.RowApi;
+import com.belladati.sdk.connector.PropertyValueApi.BooleanValue;
 import com.belladati.sdk.connector.PropertyValueApi.IntegerValue;
 import com.belladati.sdk.connector.PropertyValueApi.StringValue;
+import com.belladati.sdk.connector.example.RowMemoryBudget;
+import com.belladati.sdk.connector.example.jdbc.JdbcConnectionPool;
+import com.belladati.sdk.connector.example.jdbc.JdbcDialect;
+import com.belladati.sdk.connector.example.jdbc.JdbcImportScheduler;
+import com.belladati.sdk.connector.example.jdbc.JdbcProviderSupport;
 
 /**
- * Example implementation of {@link DataProviderApi}. It loads data from PostgreSQL database.
+ * Example implementation of {@link DataProviderApi}. It loads data from PostgreSQL database. Database specific parts
+ * are supplied by {@link JdbcDialect}, so the same provider can read from another database, e.g. from embedded H2 in
+ * offline tests. Session profiles, sampled preview, change detection, import diagnostics and the shared snapshot of
+ * partitioned imports use hooks of the dialect, so they are fully available with {@link PostgreDialect} only.
+ * <p>
+ * Optionally the data provider is warmed up in background when it is created or its configuration changes: driver is
+ * loaded, pooled connections are established and the configured query is described by the server, so that the first
+ * preview doesn't pay for all of it. Warm-up never blocks or fails calls of the data provider.
  * @author Lubomir Elko
  */
 public class PostgreDataProvider extends DataProviderApi<PostgreRows> {
 	private final static Logger log = LoggerFactory.getLogger(PostgreDataProvider.class);
 
-	/** Factory for connections to the PostgreSQL data source that this {@link DataSource} object represents **/
-	private DataSource dataSource;
+	/** Default flag if data providers are warmed up in background, can be enabled by system property **/
+	public static final boolean DEFAULT_WARM_UP = Boolean.getBoolean("belladati.connector.warmUp.enabled");
+
+	/** Executor warming up data providers, limited so that many created data providers don't flood databases **/
+	private static final ThreadPoolExecutor WARM_UP_EXECUTOR = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+		new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "postgre-warm-up");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+	static {
+		WARM_UP_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
+	/** Generic JDBC part of this data provider **/
+	private final JdbcProviderSupport support;
+
+	/** Rows provided by this data provider that may still execute queries **/
+	private final Set<PostgreRows> activeRows = Collections.newSetFromMap(new ConcurrentHashMap<PostgreRows, Boolean>());
+
+	/** Session settings for connections providing preview data **/
+	private PostgreSessionProfile previewProfile = PostgreSessionProfile.preview();
+
+	/** Session settings for connections validating the configuration **/
+	private PostgreSessionProfile validationProfile = PostgreSessionProfile.validation();
 
-	/** Connection properties used to create {@link DataSource} **/
-	private Properties connectionProperties;
+	/** Session settings for connections providing import data **/
+	private PostgreSessionProfile importProfile = PostgreSessionProfile.bulkImport();
+
+	/** Scheduler limiting concurrent imports or {@code null} to import without limits **/
+	private JdbcImportScheduler importScheduler = JdbcImportScheduler.getDefault();
+
+	/** Budget of memory used by fetched rows or {@code null} if memory is not limited **/
+	private RowMemoryBudget memoryBudget = RowMemoryBudget.getDefault();
+
+	/** Diagnostics of slow imports or {@code null} if it is disabled **/
+	private PostgreImportDiagnostics importDiagnostics;
+
+	/** Flag if this data provider is warmed up in background **/
+	private volatile boolean warmUpEnabled = DEFAULT_WARM_UP;
+
+	/** Last started warm-up or {@code null} if there was none **/
+	private Future<?> warmUp;
+
+	/** Configuration of the last started warm-up **/
+	private Properties warmUpProperties;
 
 	/**
 	 * Creates data provider that will get values from PostgreSQL based on the configuration.
@@ -46,6 +113,10 @@ public class PostgreDataProvider extends DataProviderApi<PostgreRows> {
 	 */
 	public PostgreDataProvider(Map<String, PropertyValueApi<?>> properties) {
 		super(properties);
+		this.support = new JdbcProviderSupport(new PostgreDialect(), this);
+		if (warmUpEnabled && properties != null) {
+			warmUp();
+		}
 	}
 
 	/**
@@ -65,6 +136,8 @@ public class PostgreDataProvider extends DataProviderApi<PostgreRows> {
 		defaults.put("user", new StringValue(null, false));
 		defaults.put("password", new StringValue(null, false, true));
 		defaults.put("sqlQuery", new StringValue("SELECT \"column1\", \"column2\" FROM MyTable;", true));
+		defaults.put("previewSampling", new BooleanValue(false, false));
+		defaults.put("changeDetection", new StringValue(PostgreChangeDetector.Mode.NONE.name(), false));
 		return defaults;
 	}
 
@@ -72,8 +145,8 @@ public class PostgreDataProvider extends DataProviderApi<PostgreRows> {
 	public PostgreRows providePreviewData(int limit) {
 		log.info("Providing preview data: limit=" + limit);
 		try {
-			Connection connection = createConnection();
-			return new PostgreRows(createPreparedStatement(connection, getSqlQuery(), limit));
+			Connection connection = createConnection(previewProfile);
+			return register(new PostgreRows(createPreviewStatement(connection, previewProfile, limit, isPreviewSampling())));
 		} catch (SQLException e) {
 			throw new IllegalStateException(e.getMessage(), e);
 		}
@@ -82,21 +155,194 @@ public class PostgreDataProvider extends DataProviderApi<PostgreRows> {
 	@Override
 	public PostgreRows provideImportData(ProgressBarApi progressBar) {
 		log.info("Providing import data: progressBar=" + progressBar);
+		final JdbcImportScheduler.Permit permit = acquireImportPermit();
+		Connection connection = null;
+		PostgreRows rows = null;
+		try {
+			connection = createConnection(importProfile);
+			final PostgreChangeDetector changeDetector = createChangeDetector();
+			final String fingerprint = computeFingerprint(connection, changeDetector);
+			if (changeDetector != null && changeDetector.isUnchanged(fingerprint)) {
+				log.info("Data has not changed since the last import, skipping transfer");
+				String[] columns = describeColumns(connection);
+				cleanupConnection(connection);
+				releaseImportPermit(permit);
+				return PostgreRows.unchanged(columns);
+			}
+
+			final String sql = getSqlQuery();
+			// cheap estimate of the dialect is used for progress instead of counting all rows
+			final long estimatedRows = support.estimateRowCount(connection, sql);
+			PreparedStatement dataStatement = support.prepareStatement(connection, sql, -1);
+			support.configureStreaming(connection, dataStatement, importProfile.getFetchSize());
+			support.configureBulkTransfer(dataStatement);
+			rows = new PostgreRows(dataStatement, estimatedRows < 0 ? support.prepareCountStatement(connection, sql)
+				: null, progressBar);
+			// rows close the connection from now on
+			rows.setCloseListener(createPermitReleaser(permit, 1));
+			if (estimatedRows >= 0) {
+				rows.setTotalRows((int) Math.min(estimatedRows, Integer.MAX_VALUE));
+			}
+			openMemoryAccount(rows, "PostgreSQL import from " + support.getHostKey());
+			if (importDiagnostics != null) {
+				rows.setDiagnosticsMonitor(importDiagnostics.createMonitor(sql, support.getBackendPid(connection),
+					new Callable<Connection>() {
+						@Override
+						public Connection call() throws Exception {
+							return createConnection(validationProfile);
+						}
+					}));
+			}
+			if (fingerprint != null) {
+				// fingerprint is stored only when all rows have been imported
+				rows.setCompletionListener(new Runnable() {
+					@Override
+					public void run() {
+						changeDetector.storeFingerprint(fingerprint);
+					}
+				});
+			}
+			return register(rows);
+		} catch (SQLException e) {
+			abortImport(rows == null ? connection : null, rows != null ? Collections.singletonList(rows) : null, permit);
+			throw new IllegalStateException(e.getMessage(), e);
+		} catch (RuntimeException e) {
+			abortImport(rows == null ? connection : null, rows != null ? Collections.singletonList(rows) : null, permit);
+			throw e;
+		}
+	}
+
+	/**
+	 * Provides import data split into partitions that can be read in parallel, if the dialect can split the query.
+	 * Every partition is read by its own connection in its own transaction. The first transaction exports its snapshot
+	 * and the others import it, so that all partitions read the same data, e.g. with repeatable read or serializable
+	 * transactions of the default import profile. If the dialect or the isolation level doesn't allow it, every
+	 * partition reads its own snapshot. Change detection and import diagnostics are not used. The whole import counts
+	 * as one import for the import scheduler, it ends when all partitions are closed.
+	 * @param partitions Requested number of partitions
+	 * @return Rows of the partitions, only one if the query cannot be split
+	 */
+	public List<PostgreRows> providePartitionedImportData(int partitions) {
+		log.info("Providing partitioned import data: partitions=" + partitions);
+		final JdbcImportScheduler.Permit permit = acquireImportPermit();
+		List<PostgreRows> result = new ArrayList<PostgreRows>();
+		Connection connection = null;
 		try {
-			Connection connection = createConnection();
-			return new PostgreRows(createPreparedStatement(connection, getSqlQuery(), -1), createSizeStatement(connection),
-				progressBar);
+			connection = createConnection(importProfile);
+			List<String> queries = support.createPartitionQueries(connection, getSqlQuery(), partitions);
+			// transaction of the first partition stays open until its rows are closed, so the snapshot stays valid
+			final String snapshot = queries.size() > 1 ? support.exportSnapshot(connection) : null;
+			Runnable permitReleaser = createPermitReleaser(permit, queries.size());
+			for (String sql : queries) {
+				if (connection == null) {
+					connection = createConnection(importProfile);
+					if (snapshot != null) {
+						support.importSnapshot(connection, snapshot);
+					}
+				}
+				PreparedStatement dataStatement = support.prepareStatement(connection, sql, -1);
+				support.configureStreaming(connection, dataStatement, importProfile.getFetchSize());
+				support.configureBulkTransfer(dataStatement);
+				PostgreRows rows = new PostgreRows(dataStatement);
+				openMemoryAccount(rows, "PostgreSQL import from " + support.getHostKey() + " #" + (result.size() + 1));
+				rows.setCloseListener(permitReleaser);
+				result.add(register(rows));
+				connection = null;
+			}
+			return result;
 		} catch (SQLException e) {
+			abortImport(connection, result, permit);
 			throw new IllegalStateException(e.getMessage(), e);
+		} catch (RuntimeException e) {
+			abortImport(connection, result, permit);
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases everything held by an import that failed before its rows were returned. Rows close their own connection
+	 * and memory account, the connection that no rows took over yet is returned to the pool.
+	 * @param connection Connection not taken over by rows or {@code null}
+	 * @param rows Rows created for the import or {@code null}
+	 * @param permit Import permit or {@code null} if imports are not limited
+	 */
+	private void abortImport(Connection connection, List<PostgreRows> rows, JdbcImportScheduler.Permit permit) {
+		try {
+			cleanupConnection(connection);
+			if (rows != null) {
+				for (PostgreRows importRows : rows) {
+					try {
+						importRows.close();
+					} catch (RuntimeException e) {
+						log.warn("Cannot close rows of failed import", e);
+					}
+				}
+			}
+		} finally {
+			// partitions that were not created never release their share of the permit
+			releaseImportPermit(permit);
 		}
 	}
 
+	/**
+	 * Accounts rows fetched by the driver in the memory budget, if the result is streamed in batches.
+	 * @param rows Import rows
+	 * @param name Name of the import shown in usage reports
+	 */
+	private void openMemoryAccount(PostgreRows rows, String name) {
+		final Integer fetchSize = importProfile.getFetchSize();
+		if (memoryBudget != null && fetchSize != null && fetchSize > 0) {
+			rows.setMemoryAccount(memoryBudget.open(name), fetchSize);
+		}
+	}
+
+	/**
+	 * Waits until the import scheduler admits import from the configured database host. Rows are returned from the
+	 * calling thread, so it is blocked while the import is queued, at most for the acquire timeout of the scheduler.
+	 * @return Permit that must be released when the import ends or {@code null} if imports are not limited
+	 */
+	private JdbcImportScheduler.Permit acquireImportPermit() {
+		final JdbcImportScheduler scheduler = importScheduler;
+		if (scheduler == null) {
+			return null;
+		}
+		final String host = support.getHostKey();
+		if (scheduler.getRunning(host) >= scheduler.getMaxImportsPerHost() || scheduler.getQueueDepth() > 0) {
+			log.info("Waiting for import from " + host + ": " + scheduler);
+		}
+		return scheduler.acquire(host);
+	}
+
+	private void releaseImportPermit(JdbcImportScheduler.Permit permit) {
+		if (permit != null) {
+			permit.release();
+		}
+	}
+
+	/**
+	 * Creates action releasing the import permit when the given number of rows objects are closed.
+	 * @param permit Import permit or {@code null} if imports are not limited
+	 * @param count Number of rows objects of the import
+	 * @return Close listener of the rows objects
+	 */
+	private Runnable createPermitReleaser(final JdbcImportScheduler.Permit permit, int count) {
+		final AtomicInteger remaining = new AtomicInteger(count);
+		return new Runnable() {
+			@Override
+			public void run() {
+				if (remaining.decrementAndGet() == 0) {
+					releaseImportPermit(permit);
+				}
+			}
+		};
+	}
+
 	@Override
 	public RowApi provideDefaultDataDefinition() {
 		log.info("Providing default column names");
 		Connection conn = null;
 		try {
-			PreparedStatement ps = createPreparedStatement(conn = createConnection(), getSqlQuery(), 1);
+			PreparedStatement ps = createPreviewStatement(conn = createConnection(previewProfile), previewProfile, 1, false);
 
 			ResultSetMetaData metaData = ps.getMetaData();
 			final int columnCount = metaData.getColumnCount();
@@ -143,6 +389,7 @@ public class PostgreDataProvider extends DataProviderApi<PostgreRows> {
 	@Override
 	public boolean check() throws Throwable {
 		log.info("Checking availability");
+		warmUpIfChanged();
 		try {
 			return checkConnection();
 		} catch (Exception e) {
@@ -153,13 +400,23 @@ public class PostgreDataProvider extends DataProviderApi<PostgreRows> {
 	@Override
 	public List<String> validate() {
 		List<String> errors = new ArrayList<String>();
+		warmUpIfChanged();
 
+		Connection conn = null;
 		try {
-			checkConnection();
-			providePreviewData(1);
+			// query is described by the server, so that syntax errors and missing objects are reported
+			conn = createConnection(validationProfile);
+			PreparedStatement ps = createPreviewStatement(conn, validationProfile, 1, false);
+			try {
+				ps.getMetaData();
+			} finally {
+				ps.close();
+			}
 		} catch (Throwable e) {
 			Throwable error = getCause(e);
 			errors.add(error.getClass().getName() + ": " + error.getMessage());
+		} finally {
+			cleanupConnection(conn);
 		}
 
 		log.info("Configuration validation ended with " + errors.size() + " errors.");
@@ -177,15 +434,30 @@ public class PostgreDataProvider extends DataProviderApi<PostgreRows> {
 	private boolean checkConnection() throws SQLException {
 		Connection conn = null;
 		try {
-			conn = createConnection();
+			conn = createConnection(null);
 			return true;
 		} finally {
 			cleanupConnection(conn);
 		}
 	}
 
-	private Connection createConnection() throws SQLException {
-		Connection conn = getOrCreateDataSource().getConnection();
+	/**
+	 * Borrows connection with the given session profile from the connection pool. The profile is applied to new
+	 * connections only, pooled connections keep the settings together with statements prepared on them.
+	 * @param profile Session settings or {@code null} to keep server defaults
+	 * @return Database connection with disabled auto-commit
+	 * @throws SQLException if the connection cannot be created
+	 */
+	private Connection createConnection(final PostgreSessionProfile profile) throws SQLException {
+		final JdbcDialect dialect = support.getDialect();
+		Connection conn = support.getConnection(profile != null ? profile.getSessionKey() : "",
+			profile != null ? new Consumer<Connection>() {
+				@Override
+				public void accept(Connection connection) {
+					// session settings must be applied before the first transaction starts
+					profile.apply(connection, dialect);
+				}
+			} : null);
 		conn.setAutoCommit(false);
 		return conn;
 	}
@@ -199,93 +471,391 @@ public class PostgreDataProvider extends DataProviderApi<PostgreRows> {
 		} catch (SQLException e) {}
 	}
 
-	private DataSource getOrCreateDataSource() {
-		Properties currentProperties = getConnectionProperties();
-		if (dataSource == null || connectionProperties == null || !connectionProperties.equals(currentProperties)) {
-			cleanup();
-			connectionProperties = currentProperties;
-			dataSource = createDataSource(currentProperties);
+	private String getSqlQuery() {
+		return ConnectorUtils.getStringValue(properties, "sqlQuery");
+	}
+
+	/**
+	 * Creates change detector based on the configuration.
+	 * @return Change detector or {@code null} if change detection is disabled
+	 */
+	private PostgreChangeDetector createChangeDetector() {
+		PropertyValueApi<?> value = properties.get("changeDetection");
+		PostgreChangeDetector.Mode mode = PostgreChangeDetector.Mode.parse(value != null ? value.getValueOrDefaultAsString()
+			: null);
+		if (mode == PostgreChangeDetector.Mode.NONE) {
+			return null;
+		}
+		final String sql = getSqlQuery();
+		String fingerprintQuery = support.getDialect().createFingerprintQuery(sql);
+		if (fingerprintQuery == null) {
+			log.info("Change detection is not available for the query, importing all data");
+			return null;
 		}
-		return dataSource;
+		String dataSourceKey = support.getConnectionUrl() + "\n" + ConnectorUtils.getStringValue(properties, "user");
+		return new PostgreChangeDetector(mode, dataSourceKey, sql, fingerprintQuery);
 	}
 
-	private DataSource createDataSource(Properties properties) {
-		DriverManagerDataSource ds = new DriverManagerDataSource();
-		ds.setDriverClassName(Driver.class.getName());
-		ds.setUrl(getConnectionUrl());
+	/**
+	 * Returns column names of the configured query, it is described by the server but not executed.
+	 * @param connection Database connection
+	 * @return Column names or {@code null} if the query cannot be described
+	 */
+	private String[] describeColumns(Connection connection) {
+		try {
+			PreparedStatement ps = connection.prepareStatement(getSqlQuery());
+			try {
+				ResultSetMetaData metaData = ps.getMetaData();
+				if (metaData == null) {
+					return null;
+				}
+				String[] columns = new String[metaData.getColumnCount()];
+				for (int i = 0; i < columns.length; i++) {
+					columns[i] = metaData.getColumnName(i + 1);
+				}
+				return columns;
+			} finally {
+				ps.close();
+			}
+		} catch (SQLException e) {
+			log.warn("Cannot get column names", e);
+			return null;
+		}
+	}
 
-		if (properties.get("user") != null) {
-			ds.setUsername(properties.getProperty("user"));
+	/**
+	 * Computes fingerprint of the query result on the server, in the same transaction as the following data query.
+	 * @param connection Database connection
+	 * @param changeDetector Change detector or {@code null} if change detection is disabled
+	 * @return Fingerprint or {@code null} if it is not available
+	 */
+	private String computeFingerprint(Connection connection, PostgreChangeDetector changeDetector) {
+		if (changeDetector == null) {
+			return null;
 		}
-		if (properties.get("password") != null) {
-			ds.setPassword(properties.getProperty("password"));
+		try {
+			return changeDetector.computeFingerprint(connection);
+		} catch (SQLException e) {
+			log.warn("Cannot compute fingerprint, importing all data", e);
+			try {
+				// failed statement aborts the whole transaction
+				connection.rollback();
+			} catch (SQLException ex) {}
+			return null;
 		}
-		ds.setConnectionProperties(properties);
+	}
 
-		log.info("Created DriverManagerDataSource with URL: " + ds.getUrl());
-		return ds;
+	/**
+	 * Cancels all queries of rows provided by this data provider that have not been closed yet. It can be called from
+	 * any thread, e.g. when the user aborts the import.
+	 */
+	public void cancel() {
+		for (PostgreRows rows : activeRows) {
+			rows.cancel();
+		}
+		log.info("Cancelled " + activeRows.size() + " active queries");
 	}
 
-	private Properties getConnectionProperties() {
-		Properties p = new Properties();
-		for (Entry<String, PropertyValueApi<?>> entry : properties.entrySet()) {
-			if (entry.getValue().getValueOrDefault() != null) {
-				p.put(entry.getKey(), entry.getValue().getValueOrDefaultAsString());
+	/**
+	 * Remembers given rows, so that they can be cancelled by {@link #cancel()}.
+	 * @param rows Provided rows
+	 * @return The same rows
+	 */
+	private PostgreRows register(PostgreRows rows) {
+		for (Iterator<PostgreRows> iterator = activeRows.iterator(); iterator.hasNext();) {
+			if (iterator.next().isClosed()) {
+				iterator.remove();
 			}
 		}
-		return p;
+		activeRows.add(rows);
+		return rows;
 	}
 
-	private String getSqlQuery() {
-		return ConnectorUtils.getStringValue(properties, "sqlQuery");
+	/**
+	 * Sets data source managed outside of this data provider, e.g. a connection pool of the application. Connection
+	 * properties are ignored while the data source is set.
+	 * @param dataSource Data source or {@code null} to create the data source from connection properties
+	 */
+	public void setDataSource(DataSource dataSource) {
+		support.setDataSource(dataSource);
+		if (warmUpEnabled) {
+			warmUp();
+		}
 	}
 
-	private String getConnectionUrl() {
-		final String host = ConnectorUtils.getStringValue(properties, "host");
-		final String database = ConnectorUtils.getStringValue(properties, "database");
+	/**
+	 * Returns pool of connections created from the configuration, e.g. to see how many statements have been reused.
+	 * @return Connection pool
+	 */
+	public JdbcConnectionPool getConnectionPool() {
+		return support.getConnectionPool();
+	}
+
+	/**
+	 * Returns database specific part of this data provider.
+	 * @return Database dialect, {@link PostgreDialect} by default
+	 */
+	public JdbcDialect getDialect() {
+		return support.getDialect();
+	}
 
-		String port = "";
-		if (properties.containsKey("port")) {
-			port = ":" + ConnectorUtils.getStringValue(properties, "port");
+	/**
+	 * Sets database specific part of this data provider, e.g. {@link com.belladati.sdk.connector.example.jdbc.H2Dialect}
+	 * for offline tests.
+	 * @param dialect Database dialect
+	 */
+	public void setDialect(JdbcDialect dialect) {
+		support.setDialect(dialect);
+		if (warmUpEnabled) {
+			warmUp();
 		}
+	}
 
-		return "jdbc:postgresql://" + host + port + "/" + database;
+	/**
+	 * Returns scheduler limiting concurrent imports.
+	 * @return Scheduler or {@code null} if imports are not limited
+	 */
+	public JdbcImportScheduler getImportScheduler() {
+		return importScheduler;
 	}
 
-	private PreparedStatement createPreparedStatement(Connection connection, String sql, int limit) throws SQLException {
-		PreparedStatement ps;
-		ps = connection.prepareStatement(sql);
-		ps.closeOnCompletion();
-		if (limit != -1) {
-			ps.setMaxRows(limit);
+	/**
+	 * Sets scheduler limiting concurrent imports, the scheduler shared by all data providers is used by default.
+	 * @param importScheduler Scheduler or {@code null} to import without limits
+	 */
+	public void setImportScheduler(JdbcImportScheduler importScheduler) {
+		this.importScheduler = importScheduler;
+	}
+
+	/**
+	 * Returns budget of memory used by fetched rows.
+	 * @return Memory budget or {@code null} if memory is not limited
+	 */
+	public RowMemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Sets budget of memory used by fetched rows, the budget shared by all data providers is used by default.
+	 * @param memoryBudget Memory budget or {@code null} if memory is not limited
+	 */
+	public void setMemoryBudget(RowMemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Returns diagnostics of slow imports.
+	 * @return Diagnostics or {@code null} if it is disabled
+	 */
+	public PostgreImportDiagnostics getImportDiagnostics() {
+		return importDiagnostics;
+	}
+
+	/**
+	 * Enables diagnostics of slow imports, report is written to the log when import throughput falls below the
+	 * threshold.
+	 * @param importDiagnostics Diagnostics or {@code null} to disable it
+	 */
+	public void setImportDiagnostics(PostgreImportDiagnostics importDiagnostics) {
+		this.importDiagnostics = importDiagnostics;
+	}
+
+	/**
+	 * Returns session settings for connections providing preview data.
+	 * @return Preview profile
+	 */
+	public PostgreSessionProfile getPreviewProfile() {
+		return previewProfile;
+	}
+
+	/**
+	 * Sets session settings for connections providing preview data.
+	 * @param previewProfile Preview profile
+	 */
+	public void setPreviewProfile(PostgreSessionProfile previewProfile) {
+		this.previewProfile = previewProfile;
+	}
+
+	/**
+	 * Returns session settings for connections validating the configuration.
+	 * @return Validation profile
+	 */
+	public PostgreSessionProfile getValidationProfile() {
+		return validationProfile;
+	}
+
+	/**
+	 * Sets session settings for connections validating the configuration.
+	 * @param validationProfile Validation profile
+	 */
+	public void setValidationProfile(PostgreSessionProfile validationProfile) {
+		this.validationProfile = validationProfile;
+	}
+
+	/**
+	 * Returns session settings for connections providing import data.
+	 * @return Import profile
+	 */
+	public PostgreSessionProfile getImportProfile() {
+		return importProfile;
+	}
+
+	/**
+	 * Sets session settings for connections providing import data.
+	 * @param importProfile Import profile
+	 */
+	public void setImportProfile(PostgreSessionProfile importProfile) {
+		this.importProfile = importProfile;
+	}
+
+	/**
+	 * Returns flag if this data provider is warmed up in background when it is created or its configuration changes.
+	 * @return {@code true} if warm-up is enabled, by system property {@code belladati.connector.warmUp.enabled}
+	 */
+	public boolean isWarmUpEnabled() {
+		return warmUpEnabled;
+	}
+
+	/**
+	 * Enables warm-up of this data provider in background, the warm-up starts immediately when it is enabled.
+	 * @param warmUpEnabled {@code true} to warm up the data provider
+	 */
+	public void setWarmUpEnabled(boolean warmUpEnabled) {
+		this.warmUpEnabled = warmUpEnabled;
+		if (warmUpEnabled) {
+			warmUp();
 		}
-		return ps;
 	}
 
-	private PreparedStatement createSizeStatement(Connection connection) {
-		final String innerSql = getSqlQuery().replace(';', ' ').replace('\n', ' ');
-		final String countSql = "select count(*) from (" + innerSql + ") as t";
+	/**
+	 * Starts warm-up of this data provider in background for the current configuration, e.g. when the application has
+	 * changed the configuration. Connections for preview and validation are established and returned to the connection
+	 * pool, the configured query is described on them, so that the driver caches its statement. Failures are only
+	 * logged, warm-up is not started again for the same configuration until it changes.
+	 * @return Started warm-up, completed normally even if the warm-up fails
+	 */
+	public synchronized Future<?> warmUp() {
+		if (warmUp != null) {
+			// waiting warm-up of the previous configuration is useless
+			warmUp.cancel(false);
+		}
+		warmUpProperties = getWarmUpProperties();
+		warmUp = WARM_UP_EXECUTOR.submit(new Runnable() {
+			@Override
+			public void run() {
+				runWarmUp();
+			}
+		});
+		return warmUp;
+	}
 
+	/**
+	 * Returns the last started warm-up, e.g. to wait until it ends.
+	 * @return Warm-up or {@code null} if it has not been started
+	 */
+	public synchronized Future<?> getWarmUp() {
+		return warmUp;
+	}
+
+	/**
+	 * Starts warm-up if it is enabled and the configuration has changed since the last warm-up. Properties are changed
+	 * by the application without notifying the data provider, so the change is found out when the configuration is
+	 * checked or validated, and the following preview is served by warmed up connections.
+	 */
+	private void warmUpIfChanged() {
+		if (warmUpEnabled) {
+			synchronized (this) {
+				Properties current = getWarmUpProperties();
+				if (current == null || !current.equals(warmUpProperties)) {
+					warmUp();
+				}
+			}
+		}
+	}
+
+	private Properties getWarmUpProperties() {
 		try {
-			PreparedStatement ps = createPreparedStatement(connection, countSql, 1);
-			return ps;
-		} catch (SQLException e) {
-			log.error("Count SQL error: " + countSql, e);
+			return support.getCurrentProperties();
+		} catch (RuntimeException e) {
 			return null;
 		}
 	}
 
-	private void cleanup() {
-		if (dataSource != null) {
+	/**
+	 * Warms up connections for preview and validation. All errors are logged, they are reported to the user by the
+	 * following calls of the data provider.
+	 */
+	private void runWarmUp() {
+		final long start = System.currentTimeMillis();
+		try {
+			warmUpConnection(previewProfile);
+			if (!previewProfile.getSessionKey().equals(validationProfile.getSessionKey())) {
+				warmUpConnection(validationProfile);
+			}
+			log.info("Warm-up finished in " + (System.currentTimeMillis() - start) + " ms: " + getConnectionPool());
+		} catch (Throwable e) {
+			log.info("Warm-up failed, connections will be established on demand: " + getCause(e));
+			log.debug("Warm-up failed", e);
+		}
+	}
+
+	/**
+	 * Borrows connection with the given session profile, describes the configured query on it and returns the
+	 * connection to the pool. The limit of the preview query is a parameter, so previews with any limit reuse the
+	 * described statement, sampled previews prepare their own query.
+	 * @param profile Session settings
+	 * @throws SQLException if the connection cannot be established or the query cannot be described
+	 */
+	private void warmUpConnection(PostgreSessionProfile profile) throws SQLException {
+		Connection conn = createConnection(profile);
+		try {
+			PreparedStatement ps = createPreviewStatement(conn, profile, 1, false);
 			try {
-				cleanupConnection(dataSource.getConnection());
-			} catch (Exception e) {}
+				ps.getMetaData();
+			} finally {
+				ps.close();
+			}
+		} finally {
+			cleanupConnection(conn);
 		}
 	}
 
+	private boolean isPreviewSampling() {
+		PropertyValueApi<?> value = properties.get("previewSampling");
+		return value != null && Boolean.parseBoolean(value.getValueOrDefaultAsString());
+	}
+
+	/**
+	 * Creates statement for preview with the limit pushed into the SQL query, so that the database can stop early.
+	 * @param connection Database connection
+	 * @param profile Session settings of the connection
+	 * @param limit Maximal number of rows
+	 * @param sampled Flag if huge single-table queries should read only a random sample of table blocks
+	 * @return Precompiled SQL statement
+	 * @throws SQLException if the statement cannot be created
+	 */
+	private PreparedStatement createPreviewStatement(Connection connection, PostgreSessionProfile profile, int limit,
+		boolean sampled) throws SQLException {
+		final String sql = getSqlQuery();
+		String sampledSql = sampled ? support.createSampledQuery(connection, sql, limit) : null;
+		PreparedStatement ps;
+		if (sampledSql != null) {
+			ps = support.prepareStatement(connection, sampledSql, limit);
+			ps.setInt(1, limit);
+		} else {
+			ps = support.prepareLimitedStatement(connection, sql, limit);
+		}
+		support.configureStreaming(connection, ps, profile.getFetchSize());
+		return ps;
+	}
+
 	@Override
 	protected void finalize() throws Throwable {
-		cleanup();
+		Future<?> running = getWarmUp();
+		if (running != null) {
+			running.cancel(false);
+		}
+		support.cleanup();
 		super.finalize();
 	}
 
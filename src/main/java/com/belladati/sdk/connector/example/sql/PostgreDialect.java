@@ -0,0 +1,402 @@
+package com.belladati.sdk.connector.example.sql;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.Driver;
+
+import com.belladati.sdk.connector.ConnectorUtils;
+import com.belladati.sdk.connector.PropertyValueApi;
+import com.belladati.sdk.connector.example.jdbc.JdbcDialect;
+import com.belladati.sdk.connector.example.jdbc.JdbcQueryRewriter;
+
+/**
+ * PostgreSQL dialect of the JDBC data provider. Rows are streamed by a server-side cursor, row count is estimated by
+ * the planner, huge tables are sampled by {@code TABLESAMPLE} and single-table queries are split into ranges of table
+ * blocks read in one exported snapshot.
+ * @author Lubomir Elko
+ */
+public class PostgreDialect implements JdbcDialect {
+	private final static Log log = LogFactory.getLog(PostgreDialect.class);
+
+	/** Minimal estimated number of table rows when sampled preview is used instead of reading the table from start **/
+	private static final double SAMPLING_MIN_ROWS = 1000000d;
+
+	/** How many times more rows than requested should be present in the sampled table blocks **/
+	private static final int SAMPLING_FACTOR = 100;
+
+	/** Minimal number of table blocks in one partition, smaller tables are not worth reading in parallel **/
+	private static final long MIN_PARTITION_PAGES = 128;
+
+	/** Snapshot ID returned by {@code pg_export_snapshot()}, it is embedded into SQL so it is checked **/
+	private static final Pattern SNAPSHOT_ID = Pattern.compile("[0-9A-Fa-f]+(-[0-9A-Fa-f]+)*");
+
+	/** Estimated number of rows of the top plan node in JSON output of {@code EXPLAIN} **/
+	private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\":\\s*(\\d+)");
+
+	/** Settings of prepared statement reuse and binary transfer **/
+	private PostgreStatementSettings statementSettings = new PostgreStatementSettings();
+
+	@Override
+	public String getName() {
+		return "PostgreSQL";
+	}
+
+	@Override
+	public String getDriverClassName() {
+		return Driver.class.getName();
+	}
+
+	@Override
+	public String getConnectionUrl(Map<String, PropertyValueApi<?>> properties) {
+		final String host = ConnectorUtils.getStringValue(properties, "host");
+		final String database = ConnectorUtils.getStringValue(properties, "database");
+
+		String port = "";
+		if (properties.containsKey("port")) {
+			port = ":" + ConnectorUtils.getStringValue(properties, "port");
+		}
+
+		return "jdbc:postgresql://" + host + port + "/" + database;
+	}
+
+	@Override
+	public Properties getConnectionProperties(Map<String, PropertyValueApi<?>> properties) {
+		// driver ignores unknown properties, so the whole configuration is passed
+		Properties p = new Properties();
+		for (Entry<String, PropertyValueApi<?>> entry : properties.entrySet()) {
+			if (entry.getValue().getValueOrDefault() != null) {
+				p.put(entry.getKey(), entry.getValue().getValueOrDefaultAsString());
+			}
+		}
+		statementSettings.apply(p);
+		return p;
+	}
+
+	/**
+	 * Applies all settings in one round-trip by {@code set_config}. JIT is available since PostgreSQL 11, so it is not
+	 * set on older servers.
+	 */
+	@Override
+	public void applySessionSettings(Connection connection, Map<String, String> settings) throws SQLException {
+		final boolean jit = connection.getMetaData().getDatabaseMajorVersion() >= 11;
+		StringBuilder sql = new StringBuilder("SELECT ");
+		List<String> values = new ArrayList<String>();
+		for (Entry<String, String> setting : settings.entrySet()) {
+			if ("jit".equals(setting.getKey()) && !jit) {
+				continue;
+			}
+			if (!values.isEmpty()) {
+				sql.append(", ");
+			}
+			if ("default_transaction_isolation".equals(setting.getKey())) {
+				// serializable transactions are not allowed on hot standby servers
+				sql.append("set_config('default_transaction_isolation', CASE WHEN pg_is_in_recovery()"
+					+ " THEN current_setting('default_transaction_isolation') ELSE ? END, false)");
+			} else {
+				sql.append("set_config('").append(setting.getKey()).append("', ?, false)");
+			}
+			values.add(setting.getValue());
+		}
+		if (values.isEmpty()) {
+			return;
+		}
+
+		PreparedStatement ps = connection.prepareStatement(sql.toString());
+		try {
+			for (int i = 0; i < values.size(); i++) {
+				ps.setString(i + 1, values.get(i));
+			}
+			ps.executeQuery().close();
+		} finally {
+			ps.close();
+		}
+	}
+
+	@Override
+	public void configureStreaming(Connection connection, PreparedStatement statement, int fetchSize)
+		throws SQLException {
+		// driver uses a cursor only outside of auto-commit mode, otherwise it loads the whole result
+		if (connection.getAutoCommit()) {
+			log.warn("Connection is in auto-commit mode, result will not be streamed");
+		}
+		statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+		statement.setFetchSize(fetchSize);
+	}
+
+	@Override
+	public void configureBulkTransfer(PreparedStatement statement) throws SQLException {
+		statementSettings.configureImport(statement);
+	}
+
+	@Override
+	public String wrapWithLimit(String sql) {
+		return JdbcQueryRewriter.wrapWithLimit(sql);
+	}
+
+	@Override
+	public String createCountQuery(String sql) {
+		return JdbcQueryRewriter.wrapWithCount(sql);
+	}
+
+	/**
+	 * Returns order-independent hash of all rows computed by the server, the rows are not transferred.
+	 */
+	@Override
+	public String createFingerprintQuery(String sql) {
+		if (!JdbcQueryRewriter.isWrappable(sql)) {
+			return null;
+		}
+		// sum of row hashes doesn't depend on the order of rows and doesn't need sorting, the alias must not clash with
+		// column names, otherwise the column would be hashed instead of the whole row
+		return "SELECT count(*) || ':' || coalesce(sum(('x' || substr(md5(fingerprint_row::text), 1, 16))::bit(64)"
+			+ "::bigint), 0) FROM (\n" + JdbcQueryRewriter.stripTerminator(sql) + "\n) AS fingerprint_row";
+	}
+
+	/**
+	 * Returns number of rows estimated by the planner, the query is planned but not executed.
+	 */
+	@Override
+	public long estimateRowCount(Connection connection, String sql) throws SQLException {
+		if (!JdbcQueryRewriter.isWrappable(sql)) {
+			return -1;
+		}
+		PreparedStatement ps = connection.prepareStatement("EXPLAIN (FORMAT JSON) "
+			+ JdbcQueryRewriter.stripTerminator(sql));
+		try {
+			ResultSet rs = ps.executeQuery();
+			try {
+				return rs.next() ? parsePlanRows(rs.getString(1)) : -1;
+			} finally {
+				rs.close();
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * Splits simple single-table queries into ranges of table blocks using {@code ctid}. Ranges are read by TID range
+	 * scans available since PostgreSQL 14, older servers would scan the whole table for every partition.
+	 */
+	@Override
+	public List<String> createPartitionQueries(Connection connection, String sql, int partitions) throws SQLException {
+		final String table = JdbcQueryRewriter.getSingleTable(sql);
+		if (table == null || JdbcQueryRewriter.addCondition(sql, "true") == null
+			|| connection.getMetaData().getDatabaseMajorVersion() < 14) {
+			return null;
+		}
+		List<String> queries = new ArrayList<String>();
+		for (String condition : createBlockRanges(getTablePages(connection, table), partitions)) {
+			queries.add(JdbcQueryRewriter.addCondition(sql, condition));
+		}
+		return queries;
+	}
+
+	/**
+	 * Reads random sample of table blocks using {@code TABLESAMPLE SYSTEM}, if the table has at least a million rows.
+	 */
+	@Override
+	public String createSampledQuery(Connection connection, String sql, int limit) throws SQLException {
+		final String table = JdbcQueryRewriter.getSingleTable(sql);
+		if (table == null) {
+			return null;
+		}
+		// TABLESAMPLE is available since PostgreSQL 9.5
+		DatabaseMetaData dbMetaData = connection.getMetaData();
+		int major = dbMetaData.getDatabaseMajorVersion();
+		if (major < 9 || (major == 9 && dbMetaData.getDatabaseMinorVersion() < 5)) {
+			return null;
+		}
+		double estimatedRows = estimateTableRows(connection, table);
+		if (estimatedRows < SAMPLING_MIN_ROWS) {
+			return null;
+		}
+		double percent = 100d * Math.max(limit, 1) * SAMPLING_FACTOR / estimatedRows;
+		log.info("Using sampled preview of table " + table + " with estimated " + (long) estimatedRows + " rows");
+		return wrapWithSample(sql, percent);
+	}
+
+	/**
+	 * Exports snapshot only from repeatable read and serializable transactions, transactions with lower isolation use
+	 * a new snapshot for every statement, so their own partition would not read the exported snapshot.
+	 */
+	@Override
+	public String exportSnapshot(Connection connection) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement("SELECT CASE WHEN current_setting('transaction_isolation')"
+			+ " IN ('repeatable read', 'serializable') THEN pg_export_snapshot() END");
+		try {
+			ResultSet rs = ps.executeQuery();
+			try {
+				return rs.next() ? rs.getString(1) : null;
+			} finally {
+				rs.close();
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * Imports the snapshot by {@code SET TRANSACTION SNAPSHOT}. The transaction must be repeatable read or serializable
+	 * like the exporting one, which is the case for connections of the same session profile. Read-only deferrable
+	 * transactions cannot import snapshots, so the transaction is made not deferrable, the exporting transaction has
+	 * already waited for a safe snapshot.
+	 */
+	@Override
+	public void importSnapshot(Connection connection, String snapshot) throws SQLException {
+		if (!SNAPSHOT_ID.matcher(snapshot).matches()) {
+			throw new SQLException("Invalid snapshot ID: " + snapshot);
+		}
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute("SET TRANSACTION NOT DEFERRABLE");
+			statement.execute("SET TRANSACTION SNAPSHOT '" + snapshot + "'");
+		} finally {
+			statement.close();
+		}
+	}
+
+	@Override
+	public Integer getBackendPid(Connection connection) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement("SELECT pg_backend_pid()");
+		try {
+			ResultSet rs = ps.executeQuery();
+			try {
+				return rs.next() ? rs.getInt(1) : null;
+			} finally {
+				rs.close();
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * Rewrites a simple single-table query to read only a random sample of table blocks using {@code TABLESAMPLE SYSTEM}
+	 * and wraps it with {@code LIMIT} in the same way as {@link JdbcQueryRewriter#wrapWithLimit(String)}.
+	 * @param sql User defined SQL query
+	 * @param percent Percentage of table blocks to read
+	 * @return Rewritten query with the limit as parameter or {@code null} if the query cannot be sampled
+	 */
+	static String wrapWithSample(String sql, double percent) {
+		String sampled = JdbcQueryRewriter.addTableClause(sql, " TABLESAMPLE SYSTEM (" + formatPercent(percent) + ")");
+		return sampled != null ? JdbcQueryRewriter.wrapWithLimit(sampled) : null;
+	}
+
+	/**
+	 * Formats given percentage as SQL numeric literal.
+	 * @param percent Percentage of table blocks
+	 * @return Numeric literal between 0 and 100
+	 */
+	private static String formatPercent(double percent) {
+		double bounded = Math.min(100d, Math.max(0.0001d, percent));
+		return String.format(Locale.ENGLISH, "%.4f", bounded);
+	}
+
+	/**
+	 * Returns number of rows in the given table estimated by planner statistics.
+	 * @param connection Database connection
+	 * @param table Table name as written in the query
+	 * @return Estimated number of rows, negative if the table has never been analyzed
+	 * @throws SQLException if the table cannot be found
+	 */
+	private double estimateTableRows(Connection connection, String table) throws SQLException {
+		return queryTableStatistics(connection, "reltuples", table);
+	}
+
+	/**
+	 * Returns number of blocks of the given table according to planner statistics.
+	 * @param connection Database connection
+	 * @param table Table name as written in the query
+	 * @return Number of blocks, 0 if the table has never been analyzed
+	 * @throws SQLException if the table cannot be found
+	 */
+	private long getTablePages(Connection connection, String table) throws SQLException {
+		return (long) Math.max(0d, queryTableStatistics(connection, "relpages", table));
+	}
+
+	private double queryTableStatistics(Connection connection, String column, String table) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement("SELECT " + column + " FROM pg_class WHERE oid = ?::regclass");
+		try {
+			ps.setString(1, table);
+			ResultSet rs = ps.executeQuery();
+			try {
+				return rs.next() ? rs.getDouble(1) : -1d;
+			} finally {
+				rs.close();
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * Creates conditions selecting disjoint ranges of table blocks. The first and the last range are open, so that rows
+	 * in blocks added after the statistics were collected are not lost.
+	 * @param pages Number of table blocks
+	 * @param partitions Requested number of partitions
+	 * @return Conditions on {@code ctid}, empty if the table is too small to be split
+	 */
+	static List<String> createBlockRanges(long pages, int partitions) {
+		List<String> conditions = new ArrayList<String>();
+		final int count = (int) Math.min(partitions, pages / MIN_PARTITION_PAGES);
+		if (count < 2) {
+			return conditions;
+		}
+		final long step = (pages + count - 1) / count;
+		for (int i = 0; i < count; i++) {
+			String lower = "ctid >= '(" + (i * step) + ",0)'::tid";
+			String upper = "ctid < '(" + ((i + 1) * step) + ",0)'::tid";
+			if (i == 0) {
+				conditions.add(upper);
+			} else if (i == count - 1) {
+				conditions.add(lower);
+			} else {
+				conditions.add(lower + " AND " + upper);
+			}
+		}
+		return conditions;
+	}
+
+	/**
+	 * Returns estimated number of rows of the top plan node.
+	 * @param plan Query plan in JSON format
+	 * @return Estimated number of rows, negative if it is not present
+	 */
+	static long parsePlanRows(String plan) {
+		Matcher matcher = PLAN_ROWS.matcher(plan != null ? plan : "");
+		return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+	}
+
+	/**
+	 * Returns settings of prepared statement reuse and binary transfer.
+	 * @return Statement settings
+	 */
+	public PostgreStatementSettings getStatementSettings() {
+		return statementSettings;
+	}
+
+	/**
+	 * Sets settings of prepared statement reuse and binary transfer, they are used by data sources created afterwards.
+	 * @param statementSettings Statement settings
+	 */
+	public void setStatementSettings(PostgreStatementSettings statementSettings) {
+		this.statementSettings = statementSettings;
+	}
+
+}
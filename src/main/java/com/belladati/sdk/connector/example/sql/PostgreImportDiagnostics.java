@@ -0,0 +1,339 @@
+package com.belladati.sdk.connector.example.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.belladati.sdk.connector.example.jdbc.JdbcQueryRewriter;
+
+/**
+ * Diagnostics of slow imports. It watches throughput of {@link PostgreRows} iteration and when it falls below the
+ * threshold, it captures query plan, wait events and locks of the import backend together with client-side timing
+ * splits, and writes them as one report to the log. Wait events and locks are captured only if the dialect knows the
+ * backend process, otherwise the report contains the plan and client-side timing.
+ * <p>
+ * Capturing is sampled: client-side timing is measured only on every n-th row, the server is asked at most once per
+ * import and at most once per capture interval for the same query, so that a query that is slow on every import
+ * doesn't fill the log, while slow imports of other queries are still reported. Captures run one at a time on a
+ * background thread using a separate connection.
+ * @author Lubomir Elko
+ */
+public class PostgreImportDiagnostics {
+	private final static Log log = LogFactory.getLog(PostgreImportDiagnostics.class);
+
+	/** Executor checking throughput and capturing diagnostics, so that the import itself is not delayed **/
+	private static final ScheduledExecutorService CAPTURE_EXECUTOR = Executors
+		.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "postgre-import-diagnostics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+	/** Throughput in rows per second below which the import is considered slow **/
+	private final double minRowsPerSecond;
+
+	/** Length of the window in milliseconds in which throughput is measured **/
+	private long windowMillis = 30000;
+
+	/** Minimal time in milliseconds between two captures of the same query **/
+	private long minCaptureIntervalMillis = 600000;
+
+	/** Times of the last captures by queries, queries not captured within the capture interval are removed **/
+	private final ConcurrentHashMap<String, Long> lastCaptures = new ConcurrentHashMap<String, Long>();
+
+	/** Client-side timing is measured on every n-th row, must be a power of two **/
+	private int timingSampleRate = 64;
+
+	/** Maximal number of plan lines written to the report **/
+	private int maxPlanLines = 200;
+
+	/**
+	 * Creates diagnostics with the given throughput threshold.
+	 * @param minRowsPerSecond Throughput in rows per second below which the import is considered slow
+	 */
+	public PostgreImportDiagnostics(double minRowsPerSecond) {
+		this.minRowsPerSecond = minRowsPerSecond;
+	}
+
+	/**
+	 * Creates monitor of one import.
+	 * @param sql Imported SQL query
+	 * @param backendPid Process ID of the server backend executing the import or {@code null} if unknown
+	 * @param connections Factory of separate connections used for capturing
+	 * @return Monitor that should be notified by {@link PostgreRows}
+	 */
+	public Monitor createMonitor(String sql, Integer backendPid, Callable<Connection> connections) {
+		return new Monitor(sql, backendPid, connections);
+	}
+
+	public double getMinRowsPerSecond() {
+		return minRowsPerSecond;
+	}
+
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+
+	public void setWindowMillis(long windowMillis) {
+		this.windowMillis = windowMillis;
+	}
+
+	public long getMinCaptureIntervalMillis() {
+		return minCaptureIntervalMillis;
+	}
+
+	public void setMinCaptureIntervalMillis(long minCaptureIntervalMillis) {
+		this.minCaptureIntervalMillis = minCaptureIntervalMillis;
+	}
+
+	public int getTimingSampleRate() {
+		return timingSampleRate;
+	}
+
+	/**
+	 * Sets how often client-side timing is measured.
+	 * @param timingSampleRate Timing is measured on every n-th row, it is rounded up to a power of two
+	 */
+	public void setTimingSampleRate(int timingSampleRate) {
+		this.timingSampleRate = timingSampleRate <= 1 ? 1 : Integer.highestOneBit(timingSampleRate - 1) << 1;
+	}
+
+	public int getMaxPlanLines() {
+		return maxPlanLines;
+	}
+
+	public void setMaxPlanLines(int maxPlanLines) {
+		this.maxPlanLines = maxPlanLines;
+	}
+
+	/**
+	 * Monitor of one import. It is notified by the iterating thread and checked periodically by a background thread, so
+	 * that also imports stalled on the server are detected.
+	 * @author Lubomir Elko
+	 */
+	public class Monitor implements Runnable {
+
+		/** Imported SQL query **/
+		private final String sql;
+
+		/** Process ID of the server backend executing the import **/
+		private final Integer backendPid;
+
+		/** Factory of separate connections used for capturing **/
+		private final Callable<Connection> connections;
+
+		/** Mask selecting sampled rows **/
+		private final int sampleMask = timingSampleRate - 1;
+
+		/** Index of the last sampled row read by the import **/
+		private volatile int lastRow;
+
+		/** Number of rows read before the current throughput window **/
+		private int windowStartRow;
+
+		/** Sampled time in nanoseconds spent fetching rows from the driver **/
+		private volatile long fetchNanos;
+
+		/** Sampled time in nanoseconds spent converting rows **/
+		private volatile long conversionNanos;
+
+		/** Sampled time in nanoseconds spent by the consumer between rows **/
+		private volatile long consumerNanos;
+
+		/** Periodic check of throughput **/
+		private ScheduledFuture<?> check;
+
+		private Monitor(String sql, Integer backendPid, Callable<Connection> connections) {
+			this.sql = sql;
+			this.backendPid = backendPid;
+			this.connections = connections;
+		}
+
+		/**
+		 * Starts periodic checks of throughput, it should be called before the data query is executed.
+		 */
+		public synchronized void start() {
+			if (check == null) {
+				check = CAPTURE_EXECUTOR.scheduleAtFixedRate(this, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		/**
+		 * Stops periodic checks of throughput, it should be called when all rows have been read or the import is
+		 * closed.
+		 */
+		public synchronized void stop() {
+			if (check != null) {
+				check.cancel(false);
+			}
+		}
+
+		/**
+		 * Checks if throughput is checked periodically.
+		 * @return {@code true} if the monitor has been started and not stopped yet
+		 */
+		public synchronized boolean isRunning() {
+			return check != null && !check.isDone();
+		}
+
+		/**
+		 * Checks if timing of the given row should be measured.
+		 * @param rowIndex Index of the row
+		 * @return {@code true} if the row is sampled
+		 */
+		public boolean isSampled(int rowIndex) {
+			return (rowIndex & sampleMask) == 0;
+		}
+
+		/**
+		 * Records timing of a sampled row. It must be called by the iterating thread only.
+		 * @param fetch Nanoseconds spent fetching the row from the driver
+		 * @param conversion Nanoseconds spent converting the row
+		 * @param consumer Nanoseconds spent by the consumer since the previous row
+		 */
+		public void recordTiming(long fetch, long conversion, long consumer) {
+			fetchNanos += fetch;
+			conversionNanos += conversion;
+			consumerNanos += consumer;
+		}
+
+		/**
+		 * Notifies the monitor about read row. Only sampled rows are recorded, so the call is cheap.
+		 * @param rowIndex Index of the row
+		 */
+		public void rowRead(int rowIndex) {
+			if (isSampled(rowIndex)) {
+				lastRow = rowIndex;
+			}
+		}
+
+		/**
+		 * Checks throughput in the last window and captures diagnostics if it is too low.
+		 */
+		@Override
+		public void run() {
+			final int row = lastRow;
+			double rowsPerSecond = (row - windowStartRow) * 1000d / windowMillis;
+			windowStartRow = row;
+			if (rowsPerSecond < minRowsPerSecond && acquireCapture()) {
+				// only one report per import
+				stop();
+				capture(formatClientTiming(row, rowsPerSecond));
+			}
+		}
+
+		/**
+		 * Checks if the query of this import may be captured now and records the capture.
+		 * @return {@code true} if the query has not been captured within the capture interval
+		 */
+		private boolean acquireCapture() {
+			final long now = System.currentTimeMillis();
+			final Long last = lastCaptures.get(sql);
+			if (last != null && now - last < minCaptureIntervalMillis) {
+				return false;
+			}
+			if (last == null ? lastCaptures.putIfAbsent(sql, now) != null : !lastCaptures.replace(sql, last, now)) {
+				return false;
+			}
+			for (Iterator<Long> it = lastCaptures.values().iterator(); it.hasNext();) {
+				if (now - it.next() >= minCaptureIntervalMillis) {
+					it.remove();
+				}
+			}
+			return true;
+		}
+
+		private String formatClientTiming(int rowIndex, double rowsPerSecond) {
+			long total = Math.max(1, fetchNanos + conversionNanos + consumerNanos);
+			String throughput = String.format(Locale.ENGLISH, "throughput=%.1f rows/s, threshold=%.1f rows/s, rows=%d,"
+				+ " backendPid=%s", rowsPerSecond, minRowsPerSecond, rowIndex, backendPid);
+			String timing = String.format(Locale.ENGLISH, "client timing (every %d. row): fetch=%d%%, conversion=%d%%,"
+				+ " consumer=%d%%", timingSampleRate, fetchNanos * 100 / total, conversionNanos * 100 / total,
+				consumerNanos * 100 / total);
+			return throughput + "\n" + timing;
+		}
+
+		/**
+		 * Captures server-side diagnostics and writes the whole report to the log.
+		 * @param clientReport Client-side part of the report
+		 */
+		private void capture(String clientReport) {
+			StringBuilder report = new StringBuilder("Slow import diagnostics\n").append(clientReport);
+			Connection conn = null;
+			try {
+				conn = connections.call();
+				conn.setAutoCommit(true);
+				if (backendPid != null) {
+					appendQuery(report, conn, "activity", "SELECT state, wait_event_type, wait_event,"
+						+ " now() - query_start AS query_duration, now() - xact_start AS transaction_duration"
+						+ " FROM pg_stat_activity WHERE pid = ?", backendPid, 1);
+					appendQuery(report, conn, "locks", "SELECT l.locktype, l.mode, l.granted, l.relation::regclass AS relation,"
+						+ " pg_blocking_pids(l.pid) AS blocked_by FROM pg_locks l WHERE l.pid = ?", backendPid, 50);
+				}
+				appendQuery(report, conn, "plan", "EXPLAIN " + JdbcQueryRewriter.stripTerminator(sql), null,
+					maxPlanLines);
+			} catch (Exception e) {
+				report.append("\ncapture failed: ").append(e);
+			} finally {
+				if (conn != null) {
+					try {
+						conn.close();
+					} catch (SQLException e) {}
+				}
+			}
+			log.warn(report);
+		}
+
+		/**
+		 * Appends result of the given diagnostic query to the report. Failure of one query doesn't stop the others.
+		 */
+		private void appendQuery(StringBuilder report, Connection conn, String section, String query, Integer pid,
+			int maxRows) {
+			report.append('\n').append(section).append(':');
+			try {
+				PreparedStatement ps = conn.prepareStatement(query);
+				try {
+					if (pid != null) {
+						ps.setInt(1, pid);
+					}
+					ps.setMaxRows(maxRows);
+					ResultSet rs = ps.executeQuery();
+					ResultSetMetaData metaData = rs.getMetaData();
+					while (rs.next()) {
+						report.append("\n  ");
+						for (int i = 1; i <= metaData.getColumnCount(); i++) {
+							if (metaData.getColumnCount() > 1) {
+								report.append(metaData.getColumnLabel(i)).append('=');
+							}
+							report.append(rs.getString(i)).append(i < metaData.getColumnCount() ? ", " : "");
+						}
+					}
+					rs.close();
+				} finally {
+					ps.close();
+				}
+			} catch (SQLException e) {
+				report.append(" not available: ").append(e.getMessage());
+			}
+		}
+
+	}
+
+}
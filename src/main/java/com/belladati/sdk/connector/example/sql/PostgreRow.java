@@ -28,6 +28,18 @@ public class PostgreRow implements RowApi {
 		}
 	}
 
+	/**
+	 * Creates row with the given values.
+	 * @param rowIndex Index of the row
+	 * @param values Values of the row or {@code null} if a subclass reads them elsewhere, e.g. from a
+	 *            {@link PostgreRowBuffer}
+	 */
+	PostgreRow(int rowIndex, String[] values) {
+		this.rowIndex = rowIndex;
+		this.sqlRows = null;
+		this.values = values;
+	}
+
 	@Override
 	public String[] getValues() {
 		return values;
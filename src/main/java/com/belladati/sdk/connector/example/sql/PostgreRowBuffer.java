@@ -0,0 +1,398 @@
+package com.belladati.sdk.connector.example.sql;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.belladati.sdk.connector.RowApi;
+
+/**
+ * Buffer of rows stored outside of the heap, for rows that must be kept for a while, e.g. batches of rows handed over
+ * by splitting of {@link PostgreRows} that wait until a parallel worker processes them. Values are stored as
+ * length-prefixed UTF-8 in slabs of direct memory, so buffered rows are not scanned by the garbage collector. Rows are
+ * read through views that create strings only when a value is requested.
+ * <p>
+ * Memory is limited by the maximal size of the buffer, a row that doesn't fit is refused. Memory is freed when the
+ * buffer is closed, it doesn't wait for the garbage collector. The buffer is not thread-safe, rows must not be read
+ * while they are added or while the buffer is closed.
+ * @author Lubomir Elko
+ */
+public class PostgreRowBuffer implements Closeable {
+	private final static Log log = LogFactory.getLog(PostgreRowBuffer.class);
+
+	/** Default size of one slab in bytes **/
+	public static final int DEFAULT_SLAB_BYTES = 1 << 20;
+
+	/** Length stored instead of {@code null} value **/
+	private static final int NULL_LENGTH = -1;
+
+	/** Method freeing direct memory on Java 9 and newer, {@code null} on Java 8 **/
+	private static final Method INVOKE_CLEANER;
+
+	/** Instance of {@code sun.misc.Unsafe} used to free direct memory on Java 9 and newer **/
+	private static final Object UNSAFE;
+
+	/*
+	 * Direct buffers have no public method freeing their memory before Java 22, it is freed only when the garbage
+	 * collector collects the buffer object. Buffer objects are small and live long enough to be promoted, so slabs of
+	 * consumed batches could keep up to -XX:MaxDirectMemorySize allocated until the next full collection, and further
+	 * allocations would stall in System.gc() that the JDK calls when direct memory runs out. The cleaner is therefore
+	 * invoked directly: by Unsafe.invokeCleaner() on Java 9 and newer, which is exported by module jdk.unsupported
+	 * without any --add-opens, and by the cleaner() of the buffer on Java 8. When neither is available, memory is
+	 * freed by the garbage collector as usual, only later.
+	 */
+	static {
+		Method invokeCleaner = null;
+		Object unsafe = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+		} catch (Exception e) {
+			// Java 8 uses cleaner of the buffer
+			invokeCleaner = null;
+		}
+		INVOKE_CLEANER = invokeCleaner;
+		UNSAFE = unsafe;
+	}
+
+	/** Size of one slab **/
+	private final int slabBytes;
+
+	/** Maximal size of all slabs **/
+	private final long maxBytes;
+
+	/** Allocated slabs, slabs of cleared rows are reused **/
+	private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+	/** Index of the slab that rows are added to **/
+	private int currentSlab = -1;
+
+	/** Size of all slabs **/
+	private long allocatedBytes;
+
+	/** Position of every row: slab index in the upper and offset in the lower 32 bits **/
+	private long[] positions = new long[64];
+
+	/** Number of buffered rows **/
+	private int size;
+
+	/** Flag if the memory has been freed **/
+	private boolean closed;
+
+	/**
+	 * Creates buffer with slabs of the default size.
+	 * @param maxBytes Maximal size of the buffer in bytes
+	 */
+	public PostgreRowBuffer(long maxBytes) {
+		this(DEFAULT_SLAB_BYTES, maxBytes);
+	}
+
+	/**
+	 * Creates buffer with the given limits.
+	 * @param slabBytes Size of one slab in bytes, larger rows get a slab of their own
+	 * @param maxBytes Maximal size of the buffer in bytes
+	 */
+	public PostgreRowBuffer(int slabBytes, long maxBytes) {
+		if (slabBytes < 16 || maxBytes < slabBytes) {
+			throw new IllegalArgumentException("Invalid buffer size: slabBytes=" + slabBytes + ", maxBytes=" + maxBytes);
+		}
+		this.slabBytes = slabBytes;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Adds row with the given values.
+	 * @param rowIndex Index of the row returned by its view
+	 * @param values Values of the row
+	 * @return {@code true} if the row has been added, {@code false} if it doesn't fit into the maximal size
+	 */
+	public boolean add(int rowIndex, String[] values) {
+		checkOpen();
+		// UTF-8 needs at most 3 bytes per UTF-16 character
+		long maxRowBytes = 8;
+		for (String value : values) {
+			maxRowBytes += 4 + (value != null ? 3L * value.length() : 0);
+		}
+		if (maxRowBytes > Integer.MAX_VALUE) {
+			return false;
+		}
+		ByteBuffer slab = currentSlab >= 0 ? slabs.get(currentSlab) : null;
+		if (slab == null || slab.remaining() < maxRowBytes) {
+			slab = nextSlab((int) maxRowBytes);
+			if (slab == null) {
+				return false;
+			}
+		}
+
+		if (size == positions.length) {
+			positions = Arrays.copyOf(positions, size * 2);
+		}
+		positions[size++] = (long) currentSlab << 32 | slab.position();
+		slab.putInt(rowIndex);
+		slab.putInt(values.length);
+		for (String value : values) {
+			if (value == null) {
+				slab.putInt(NULL_LENGTH);
+			} else {
+				final int lengthPosition = slab.position();
+				slab.position(lengthPosition + 4);
+				encode(value, slab);
+				slab.putInt(lengthPosition, slab.position() - lengthPosition - 4);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the given row.
+	 * @param row Row to add
+	 * @return {@code true} if the row has been added, {@code false} if it doesn't fit into the maximal size
+	 */
+	public boolean add(RowApi row) {
+		return add(row.getIndex(), row.getValues());
+	}
+
+	/**
+	 * Moves to the next slab that has space for the given number of bytes, reusing cleared slabs or allocating a new
+	 * one.
+	 * @return Slab or {@code null} if the buffer would exceed its maximal size
+	 */
+	private ByteBuffer nextSlab(int minBytes) {
+		while (currentSlab + 1 < slabs.size()) {
+			ByteBuffer slab = slabs.get(++currentSlab);
+			if (slab.capacity() >= minBytes) {
+				return slab;
+			}
+		}
+		final int capacity = Math.max(slabBytes, minBytes);
+		if (allocatedBytes + capacity > maxBytes) {
+			return null;
+		}
+		ByteBuffer slab = ByteBuffer.allocateDirect(capacity);
+		slabs.add(slab);
+		allocatedBytes += capacity;
+		currentSlab = slabs.size() - 1;
+		return slab;
+	}
+
+	/**
+	 * Writes the given value in UTF-8 without intermediate arrays.
+	 */
+	private static void encode(String value, ByteBuffer slab) {
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				slab.put((byte) c);
+			} else if (c < 0x800) {
+				slab.put((byte) (0xC0 | c >> 6));
+				slab.put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				slab.put((byte) (0xF0 | codePoint >> 18));
+				slab.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+				slab.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+				slab.put((byte) (0x80 | codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogate is replaced in the same way as by String.getBytes()
+				slab.put((byte) '?');
+			} else {
+				slab.put((byte) (0xE0 | c >> 12));
+				slab.put((byte) (0x80 | c >> 6 & 0x3F));
+				slab.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * Reads UTF-8 value from the given position without intermediate arrays.
+	 */
+	private static String decode(ByteBuffer slab, int position, int length) {
+		char[] chars = new char[length];
+		int count = 0;
+		final int end = position + length;
+		while (position < end) {
+			final int b = slab.get(position++);
+			if (b >= 0) {
+				chars[count++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0) {
+				chars[count++] = (char) ((b & 0x1F) << 6 | slab.get(position++) & 0x3F);
+			} else if ((b & 0xF0) == 0xE0) {
+				chars[count++] = (char) ((b & 0x0F) << 12 | (slab.get(position++) & 0x3F) << 6 | slab.get(position++)
+					& 0x3F);
+			} else {
+				final int codePoint = (b & 0x07) << 18 | (slab.get(position++) & 0x3F) << 12
+					| (slab.get(position++) & 0x3F) << 6 | slab.get(position++) & 0x3F;
+				chars[count++] = Character.highSurrogate(codePoint);
+				chars[count++] = Character.lowSurrogate(codePoint);
+			}
+		}
+		return new String(chars, 0, count);
+	}
+
+	/**
+	 * Returns view of the row at the given position in this buffer. The view is valid until the buffer is cleared or
+	 * closed.
+	 * @param position Position of the row, from 0 to {@link #size()} - 1
+	 * @return Row reading its values from the buffer
+	 */
+	public RowApi get(int position) {
+		checkOpen();
+		if (position < 0 || position >= size) {
+			throw new IndexOutOfBoundsException("Row " + position + " of " + size);
+		}
+		return new BufferedRow(positions[position]);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns number of bytes of slabs allocated by this buffer.
+	 * @return Allocated bytes
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Removes all rows, allocated slabs are kept for following rows.
+	 */
+	public void clear() {
+		checkOpen();
+		for (ByteBuffer slab : slabs) {
+			slab.clear();
+		}
+		currentSlab = slabs.isEmpty() ? -1 : 0;
+		size = 0;
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Row buffer has been closed");
+		}
+	}
+
+	/**
+	 * Frees memory of all slabs. Views of the rows must not be used anymore.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (ByteBuffer slab : slabs) {
+			free(slab);
+		}
+		slabs.clear();
+		allocatedBytes = 0;
+		size = 0;
+	}
+
+	/**
+	 * Frees direct memory of the given buffer immediately, see the static initializer for reasons. If it is not possible
+	 * on the running JVM, the memory is freed by the garbage collector. The buffer must be a slab allocated by this
+	 * object, not its slice or duplicate, and it must not be read afterwards: reading freed memory can crash the JVM,
+	 * so views check that the buffer is open.
+	 */
+	private static void free(ByteBuffer buffer) {
+		try {
+			if (INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			} else {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		} catch (Exception e) {
+			log.debug("Direct memory will be freed by garbage collector", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PostgreRowBuffer[rows=" + size + ", slabs=" + slabs.size() + ", allocated=" + allocatedBytes + ", max="
+			+ maxBytes + "]";
+	}
+
+	/**
+	 * View of one row stored in the buffer.
+	 * @author Lubomir Elko
+	 */
+	private class BufferedRow implements RowApi {
+
+		/** Slab containing the row **/
+		private final ByteBuffer slab;
+
+		/** Position of the row in the slab **/
+		private final int offset;
+
+		public BufferedRow(long position) {
+			this.slab = slabs.get((int) (position >>> 32));
+			this.offset = (int) position;
+		}
+
+		@Override
+		public String[] getValues() {
+			checkOpen();
+			String[] values = new String[getLength()];
+			int position = offset + 8;
+			for (int i = 0; i < values.length; i++) {
+				final int length = slab.getInt(position);
+				position += 4;
+				if (length != NULL_LENGTH) {
+					values[i] = decode(slab, position, length);
+					position += length;
+				}
+			}
+			return values;
+		}
+
+		@Override
+		public String getValue(int columnIndex) {
+			checkOpen();
+			if (columnIndex < 0 || columnIndex >= getLength()) {
+				return "";
+			}
+			int position = offset + 8;
+			for (int i = 0; i < columnIndex; i++) {
+				position += 4 + Math.max(0, slab.getInt(position));
+			}
+			final int length = slab.getInt(position);
+			return length != NULL_LENGTH ? decode(slab, position + 4, length) : null;
+		}
+
+		@Override
+		public int getLength() {
+			checkOpen();
+			return slab.getInt(offset + 4);
+		}
+
+		@Override
+		public int getIndex() {
+			checkOpen();
+			return slab.getInt(offset);
+		}
+
+	}
+
+}
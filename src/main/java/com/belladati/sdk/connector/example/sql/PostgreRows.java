@@ -5,16 +5,29 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.belladati.sdk.connector.ConnectorUtils;
 import com.belladati.sdk.connector.ProgressBarApi;
+import com.belladati.sdk.connector.RowApi;
 import com.belladati.sdk.connector.RowsApi;
+import com.belladati.sdk.connector.example.RowMemoryBudget;
 
 /**
  * Example implementation of {@link RowsApi}.
@@ -23,11 +36,50 @@ import com.belladati.sdk.connector.RowsApi;
 public class PostgreRows implements RowsApi<PostgreRow> {
 	private final static Log log = LogFactory.getLog(PostgreRows.class);
 
+	/** Default maximal time in milliseconds that {@link #close()} waits for the database **/
+	public static final long DEFAULT_CLOSE_TIMEOUT = 5000;
+
+	/** Smallest number of rows fetched at once when the memory budget is exceeded **/
+	private static final int MIN_FETCH_SIZE = 100;
+
+	/** Number of rows by which every following batch handed over by splitting grows **/
+	private static final int SPLIT_BATCH_UNIT = 1024;
+
+	/** Maximal number of rows in one batch handed over by splitting **/
+	private static final int MAX_SPLIT_BATCH = 1 << 20;
+
+	/** Size of one slab of the buffer storing a batch handed over by splitting **/
+	private static final int SPLIT_SLAB_BYTES = 64 * 1024;
+
+	/** Maximal size of the buffer storing a batch handed over by splitting **/
+	private static final long MAX_SPLIT_BUFFER_BYTES = 256L * 1024 * 1024;
+
+	/** Maximal number of threads closing connections **/
+	private static final int CLOSE_THREADS = 4;
+
+	/**
+	 * Executor closing connections, so that {@link #close()} never blocks longer than the close timeout. Threads are
+	 * limited, a close task blocked by the database is released when its connection is aborted after the timeout.
+	 **/
+	private static final ThreadPoolExecutor CLOSE_EXECUTOR = new ThreadPoolExecutor(CLOSE_THREADS, CLOSE_THREADS, 60,
+		TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "postgre-rows-close");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+	static {
+		CLOSE_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
 	/** Precompiled SQL statement for data **/
 	private final PreparedStatement dataStatement;
 
 	/** Precompiled SQL statement for number of records **/
-	private PreparedStatement sizeStatement;
+	private volatile PreparedStatement sizeStatement;
 
 	/** Reference to progress bar displayed on user interface during import **/
 	private final ProgressBarApi progressBar;
@@ -41,6 +93,48 @@ public class PostgreRows implements RowsApi<PostgreRow> {
 	/** Metadata for columns in {@link ResultSet} **/
 	private ResultSetMetaData metaData;
 
+	/** Flag if the data query has been executed **/
+	private volatile boolean started;
+
+	/** Lock ordering start of the data query and its cancellation **/
+	private final Object executionLock = new Object();
+
+	/** Flag if all rows of the data query have been read **/
+	private volatile boolean finished;
+
+	/** Flag if loading of rows has been cancelled **/
+	private volatile boolean cancelled;
+
+	/** Flag if the connection has been closed **/
+	private volatile boolean closed;
+
+	/** Maximal time in milliseconds that {@link #close()} waits for the database **/
+	private long closeTimeout = DEFAULT_CLOSE_TIMEOUT;
+
+	/** Flag if data has not changed since the last import and no rows are provided **/
+	private boolean unchanged;
+
+	/** Column names of the query whose data has not changed **/
+	private String[] unchangedColumns;
+
+	/** Action executed after all rows have been read and the transaction has been committed **/
+	private Runnable completionListener;
+
+	/** Action executed when this object is closed, whatever the result of the import **/
+	private Runnable closeListener;
+
+	/** Monitor of slow imports or {@code null} if diagnostics is disabled **/
+	private PostgreImportDiagnostics.Monitor diagnosticsMonitor;
+
+	/** Memory account of fetched rows or {@code null} if memory is not limited **/
+	private RowMemoryBudget.Account memoryAccount;
+
+	/** Number of rows fetched at once while the memory budget is not exceeded **/
+	private int maxFetchSize;
+
+	/** Batches handed over by splitting whose rows have not been processed yet, they are freed on close **/
+	private final List<BatchSpliterator> openBatches = new ArrayList<BatchSpliterator>();
+
 	/**
 	 * Creates object responsible for providing source rows based on the given SQL statement.
 	 * @param dataStatement Precompiled SQL statement for number of records
@@ -61,8 +155,23 @@ public class PostgreRows implements RowsApi<PostgreRow> {
 		this.progressBar = progressBar;
 	}
 
+	/**
+	 * Creates object without any rows, signalling that data has not changed since the last import.
+	 * @param columns Column names of the query or {@code null} if they are not known
+	 * @return Empty rows with {@link #isUnchanged()} set
+	 */
+	public static PostgreRows unchanged(String[] columns) {
+		PostgreRows rows = new PostgreRows(null);
+		rows.unchanged = true;
+		rows.unchangedColumns = columns;
+		return rows;
+	}
+
 	@Override
 	public Iterator<PostgreRow> iterator() {
+		if (cancelled || unchanged) {
+			return Collections.emptyIterator();
+		}
 		try {
 			// load total number of rows only once
 			if (sizeStatement != null) {
@@ -81,15 +190,168 @@ public class PostgreRows implements RowsApi<PostgreRow> {
 			}
 
 			// load result set
+			if (diagnosticsMonitor != null) {
+				diagnosticsMonitor.start();
+			}
+			// cancel() before this point prevents the execution, cancel() after it cancels the running statement
+			synchronized (executionLock) {
+				if (cancelled) {
+					log.info("Loading of rows has been cancelled");
+					return Collections.emptyIterator();
+				}
+				started = true;
+			}
 			ResultSet rs = dataStatement.executeQuery();
+			if (cancelled) {
+				// cancelled between the check and the execution, the result is not read
+				log.info("Loading of rows has been cancelled");
+				rs.close();
+				return Collections.emptyIterator();
+			}
 			metaData = rs.getMetaData();
 			totalColumns = metaData.getColumnCount();
 			return new PostgreRowsIterator(rs);
 		} catch (Exception e) {
+			if (cancelled) {
+				log.info("Loading of rows has been cancelled");
+				return Collections.emptyIterator();
+			}
 			throw new IllegalStateException(e);
 		}
 	}
 
+	/**
+	 * Returns {@link Spliterator} over the database rows. Only processing of the rows can run in parallel, reading is
+	 * not: all rows come from one result set of one connection, which is read by one thread at a time, and splitting
+	 * hands over batches of rows that have already been read. A parallel stream therefore doesn't read the database
+	 * faster than a sequential one, use {@link PostgreDataProvider#providePartitionedImportData(int)} to read
+	 * partitions of the query by multiple connections in parallel. Size is estimated by the count query, when it is
+	 * available. Batches are stored outside of the heap in a {@link PostgreRowBuffer} and held in the memory account
+	 * until all their rows have been processed, splitting pauses while the memory budget is exceeded.
+	 * <p>
+	 * Rows of split batches are views of their buffer, values are decoded when they are requested. A row stays valid
+	 * until its batch is consumed and this object is not closed, consumers keeping rows longer, e.g. by collecting
+	 * them, must copy their values first.
+	 */
+	@Override
+	public Spliterator<PostgreRow> spliterator() {
+		return new PostgreRowsSpliterator(iterator(), totalRows > 0 ? totalRows : Long.MAX_VALUE);
+	}
+
+	/**
+	 * Cancels queries that are currently executed by this object. It can be called from any thread, the thread
+	 * iterating over rows sees no more rows afterwards.
+	 */
+	public void cancel() {
+		final boolean executing;
+		synchronized (executionLock) {
+			if (cancelled || finished) {
+				return;
+			}
+			cancelled = true;
+			executing = started;
+		}
+		cancelStatement(sizeStatement);
+		if (executing) {
+			cancelStatement(dataStatement);
+		}
+	}
+
+	/**
+	 * Returns flag if loading of rows has been cancelled.
+	 * @return {@code true} if {@link #cancel()} has been called before all rows were read
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns flag if this object has been closed.
+	 * @return {@code true} if {@link #close()} has been called
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Returns flag if data has not changed since the last import, in which case no rows are provided.
+	 * @return {@code true} if the import has been skipped
+	 */
+	public boolean isUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * Sets action executed after all rows have been read and the transaction has been successfully committed.
+	 * @param completionListener Action to execute
+	 */
+	public void setCompletionListener(Runnable completionListener) {
+		this.completionListener = completionListener;
+	}
+
+	/**
+	 * Sets action executed when this object is closed, also after failure or cancellation, e.g. to release resources
+	 * held for the import.
+	 * @param closeListener Action to execute
+	 */
+	public void setCloseListener(Runnable closeListener) {
+		this.closeListener = closeListener;
+	}
+
+	/**
+	 * Sets memory account of rows fetched by the driver. Before every batch, the fetch size is reduced so that the batch
+	 * fits into the memory budget, and fetching pauses if even the smallest batch doesn't fit.
+	 * @param memoryAccount Memory account of the import, it is closed together with this object
+	 * @param fetchSize Number of rows fetched at once while the memory budget is not exceeded
+	 */
+	public void setMemoryAccount(RowMemoryBudget.Account memoryAccount, int fetchSize) {
+		this.memoryAccount = memoryAccount;
+		this.maxFetchSize = fetchSize;
+	}
+
+	/**
+	 * Returns memory account of rows fetched by the driver.
+	 * @return Memory account or {@code null} if memory is not limited
+	 */
+	public RowMemoryBudget.Account getMemoryAccount() {
+		return memoryAccount;
+	}
+
+	/**
+	 * Sets total number of rows shown by the progress bar, e.g. estimated by the database instead of counting them.
+	 * @param totalRows Total number of rows
+	 */
+	public void setTotalRows(int totalRows) {
+		this.totalRows = totalRows;
+	}
+
+	/**
+	 * Sets monitor notified about every read row, used to diagnose slow imports.
+	 * @param diagnosticsMonitor Monitor or {@code null} to disable diagnostics
+	 */
+	public void setDiagnosticsMonitor(PostgreImportDiagnostics.Monitor diagnosticsMonitor) {
+		this.diagnosticsMonitor = diagnosticsMonitor;
+	}
+
+	/**
+	 * Sets maximal time that {@link #close()} waits for the database. If the database doesn't respond in time, the
+	 * connection is aborted.
+	 * @param closeTimeout Timeout in milliseconds
+	 */
+	public void setCloseTimeout(long closeTimeout) {
+		this.closeTimeout = closeTimeout;
+	}
+
+	private void cancelStatement(Statement statement) {
+		if (statement != null) {
+			try {
+				statement.cancel();
+			} catch (SQLException e) {
+				log.warn("Cannot cancel statement", e);
+			}
+		}
+	}
+
 	/**
 	 * An iterator over a database result set.
 	 * @author Lubomir Elko
@@ -105,6 +367,36 @@ public class PostgreRows implements RowsApi<PostgreRow> {
 		/** Flag indicating if the iteration has more elements **/
 		private boolean hasNext;
 
+		/** Monitor of slow imports **/
+		private final PostgreImportDiagnostics.Monitor monitor = diagnosticsMonitor;
+
+		/** Time when the row before the next sampled row was returned to the consumer **/
+		private long returnedAt;
+
+		/** Time spent fetching the next sampled row **/
+		private long fetchTime;
+
+		/** Time spent by the consumer before the next sampled row was requested **/
+		private long consumerTime;
+
+		/** Memory account of fetched rows **/
+		private final RowMemoryBudget.Account account = memoryAccount;
+
+		/** Current number of rows fetched at once **/
+		private int fetchSize = maxFetchSize;
+
+		/** Rows left until the driver fetches the next batch **/
+		private int batchRemaining = 1;
+
+		/** Number of bytes of the current batch held in the memory account **/
+		private long batchBytes;
+
+		/** Estimated size of one row in bytes **/
+		private long rowBytes;
+
+		/** Flag if size of the next row should be estimated **/
+		private boolean estimateRowBytes;
+
 		/**
 		 * Creates {@link Iterator} that will iterate over given database result set.
 		 * @param resultSet Database result set
@@ -118,9 +410,36 @@ public class PostgreRows implements RowsApi<PostgreRow> {
 			if (hasNext) {
 				return true;
 			}
+			if (cancelled) {
+				return false;
+			}
 			try {
-				return (hasNext = resultSet.next());
+				if (account != null && --batchRemaining == 0) {
+					prepareBatch();
+				}
+				final boolean sampled = monitor != null && monitor.isSampled(rowIndex);
+				final long start = sampled ? System.nanoTime() : 0;
+				hasNext = resultSet.next();
+				if (sampled) {
+					fetchTime = System.nanoTime() - start;
+					consumerTime = returnedAt != 0 ? start - returnedAt : 0;
+				}
+				if (!hasNext) {
+					finished = true;
+					if (monitor != null) {
+						// rows are not read anymore, low throughput of the consumer must not be reported
+						monitor.stop();
+					}
+					if (account != null) {
+						account.release(batchBytes);
+						batchBytes = 0;
+					}
+				}
+				return hasNext;
 			} catch (SQLException e) {
+				if (cancelled) {
+					return false;
+				}
 				throw new IllegalStateException(e);
 			}
 		}
@@ -133,12 +452,57 @@ public class PostgreRows implements RowsApi<PostgreRow> {
 			try {
 				ConnectorUtils.updateProgressBar(progressBar, rowIndex, totalRows);
 				hasNext = false;
-				return new PostgreRow(rowIndex++, PostgreRows.this, resultSet);
+				PostgreRow row = monitor == null ? new PostgreRow(rowIndex++, PostgreRows.this, resultSet)
+					: nextMonitored();
+				if (estimateRowBytes) {
+					rowBytes = RowMemoryBudget.estimateRowBytes(row.getValues());
+					estimateRowBytes = false;
+				}
+				return row;
 			} catch (SQLException e) {
 				throw new IllegalStateException(e);
 			}
 		}
 
+		/**
+		 * Sizes the next batch fetched by the driver, so that it fits into the memory budget. Size of rows is estimated
+		 * from the first row of the previous batch.
+		 * @throws SQLException if the fetch size cannot be changed
+		 */
+		private void prepareBatch() throws SQLException {
+			final long bytes = Math.max(rowBytes, 1);
+			final int batch = (int) Math.max(Math.min(MIN_FETCH_SIZE, maxFetchSize), Math.min(maxFetchSize,
+				account.getAvailableBytes() / bytes));
+			account.release(batchBytes);
+			batchBytes = batch * bytes;
+			account.reserve(batchBytes);
+			if (batch != fetchSize) {
+				resultSet.setFetchSize(batch);
+				fetchSize = batch;
+			}
+			batchRemaining = batch;
+			estimateRowBytes = true;
+		}
+
+		/**
+		 * Returns the next row and notifies the monitor, timing is measured on sampled rows only.
+		 * @return Next row
+		 * @throws SQLException if the row cannot be read
+		 */
+		private PostgreRow nextMonitored() throws SQLException {
+			final boolean sampled = monitor.isSampled(rowIndex);
+			final long start = sampled ? System.nanoTime() : 0;
+			PostgreRow row = new PostgreRow(rowIndex, PostgreRows.this, resultSet);
+			if (sampled) {
+				monitor.recordTiming(fetchTime, System.nanoTime() - start, consumerTime);
+			}
+			monitor.rowRead(rowIndex);
+			if (monitor.isSampled(++rowIndex)) {
+				returnedAt = System.nanoTime();
+			}
+			return row;
+		}
+
 		@Override
 		public void remove() {
 			throw new UnsupportedOperationException();
@@ -146,6 +510,243 @@ public class PostgreRows implements RowsApi<PostgreRow> {
 
 	}
 
+	/**
+	 * A spliterator reading rows from the result set sequentially. Splitting reads a batch of the following rows on the
+	 * splitting thread and hands it over, every batch is larger than the previous one.
+	 * @author Lubomir Elko
+	 */
+	private class PostgreRowsSpliterator implements Spliterator<PostgreRow> {
+
+		/** Iterator over the result set **/
+		private final Iterator<PostgreRow> iterator;
+
+		/** Estimated number of remaining rows **/
+		private long estimatedSize;
+
+		/** Number of rows in the last batch **/
+		private int batch;
+
+		/** Row read from the result set that didn't fit into the last batch **/
+		private PostgreRow pending;
+
+		public PostgreRowsSpliterator(Iterator<PostgreRow> iterator, long estimatedSize) {
+			this.iterator = iterator;
+			this.estimatedSize = estimatedSize;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super PostgreRow> action) {
+			if (!hasNextRow()) {
+				return false;
+			}
+			action.accept(nextRow());
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super PostgreRow> action) {
+			while (hasNextRow()) {
+				action.accept(nextRow());
+			}
+		}
+
+		@Override
+		public Spliterator<PostgreRow> trySplit() {
+			if (estimatedSize <= 1 || !hasNextRow()) {
+				return null;
+			}
+			final int size = (int) Math.min(Math.min(batch + SPLIT_BATCH_UNIT, MAX_SPLIT_BATCH), estimatedSize);
+			PostgreRowBuffer buffer = new PostgreRowBuffer(SPLIT_SLAB_BYTES, MAX_SPLIT_BUFFER_BYTES);
+			do {
+				PostgreRow row = nextRow();
+				if (!buffer.add(row)) {
+					// the row is returned by the next split or advance
+					pending = row;
+					break;
+				}
+			} while (buffer.size() < size && hasNextRow());
+			if (buffer.size() == 0) {
+				buffer.close();
+				return null;
+			}
+			batch = buffer.size();
+			if (estimatedSize != Long.MAX_VALUE) {
+				estimatedSize -= batch;
+			}
+			return new BatchSpliterator(buffer);
+		}
+
+		private boolean hasNextRow() {
+			return pending != null || iterator.hasNext();
+		}
+
+		private PostgreRow nextRow() {
+			if (pending == null) {
+				return iterator.next();
+			}
+			PostgreRow row = pending;
+			pending = null;
+			return row;
+		}
+
+		@Override
+		public long estimateSize() {
+			return estimatedSize;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+
+	}
+
+	/**
+	 * A spliterator over a batch of rows handed over by splitting. The batch is stored in its own buffer, which is freed
+	 * and released from the memory account when the batch has been consumed, i.e. the spliterator has reported that
+	 * no rows remain, or when {@link PostgreRows} is closed. Rows are views of the buffer that decode values only when
+	 * they are requested, so they are valid only until then; reading a row afterwards fails with
+	 * {@link IllegalStateException} instead of reading freed memory.
+	 * @author Lubomir Elko
+	 */
+	private class BatchSpliterator implements Spliterator<PostgreRow> {
+
+		/** Buffer storing rows of the batch **/
+		private final PostgreRowBuffer buffer;
+
+		/** Number of rows in the batch **/
+		private final int count;
+
+		/** Memory account holding the batch or {@code null} if memory is not limited **/
+		private final RowMemoryBudget.Account account = memoryAccount;
+
+		/** Number of bytes of the batch held in the memory account **/
+		private final long bytes;
+
+		/** Index of the next row **/
+		private int index;
+
+		/** Flag if the buffer has been freed **/
+		private boolean closed;
+
+		public BatchSpliterator(PostgreRowBuffer buffer) {
+			this.buffer = buffer;
+			this.count = buffer.size();
+			this.bytes = buffer.getAllocatedBytes();
+			synchronized (openBatches) {
+				openBatches.add(this);
+			}
+			if (account != null) {
+				// the budget counts rows in direct buffers like rows on the heap
+				account.reserve(bytes);
+			}
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super PostgreRow> action) {
+			PostgreRow row = nextRow();
+			if (row == null) {
+				return false;
+			}
+			action.accept(row);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super PostgreRow> action) {
+			for (PostgreRow row = nextRow(); row != null; row = nextRow()) {
+				action.accept(row);
+			}
+		}
+
+		/**
+		 * Returns view of the next row. The buffer is freed by the call after the last row, when the consumer has
+		 * processed it.
+		 * @return Next row or {@code null} if all rows have been processed or the rows have been closed
+		 */
+		private synchronized PostgreRow nextRow() {
+			if (closed) {
+				return null;
+			}
+			if (index == count) {
+				close();
+				return null;
+			}
+			return new BatchRow(buffer.get(index++));
+		}
+
+		/**
+		 * Frees the buffer and releases its memory. Synchronized with reading, so that no row is read from freed memory.
+		 */
+		public synchronized void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			buffer.close();
+			if (account != null) {
+				account.release(bytes);
+			}
+			synchronized (openBatches) {
+				openBatches.remove(this);
+			}
+		}
+
+		@Override
+		public Spliterator<PostgreRow> trySplit() {
+			return null;
+		}
+
+		@Override
+		public synchronized long estimateSize() {
+			return closed ? 0 : count - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL | SIZED | SUBSIZED;
+		}
+
+		/**
+		 * Row of the batch reading its values from the buffer. Reading is synchronized with {@link #close()}, so that
+		 * the buffer cannot be freed while a value is decoded.
+		 * @author Lubomir Elko
+		 */
+		private class BatchRow extends PostgreRow {
+
+			/** View of the row in the buffer **/
+			private final RowApi view;
+
+			public BatchRow(RowApi view) {
+				super(view.getIndex(), null);
+				this.view = view;
+			}
+
+			@Override
+			public String[] getValues() {
+				synchronized (BatchSpliterator.this) {
+					return view.getValues();
+				}
+			}
+
+			@Override
+			public String getValue(int columnIndex) {
+				synchronized (BatchSpliterator.this) {
+					return view.getValue(columnIndex);
+				}
+			}
+
+			@Override
+			public int getLength() {
+				synchronized (BatchSpliterator.this) {
+					return view.getLength();
+				}
+			}
+
+		}
+
+	}
+
 	/**
 	 * Returns total number of columns
 	 * @return Total number of columns
@@ -168,22 +769,123 @@ public class PostgreRows implements RowsApi<PostgreRow> {
 			}
 			return l.toArray(new String[l.size()]);
 		}
-		return null;
+		return unchangedColumns;
 	}
 
 	@Override
 	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
 		try {
-			if (dataStatement != null) {
-				Connection conn = dataStatement.getConnection();
-				if (conn != null && !conn.isClosed()) {
-					conn.commit();
-					conn.close();
-				}
+			closeConnection();
+		} finally {
+			closeBatches();
+			if (memoryAccount != null) {
+				memoryAccount.close();
 			}
+			if (closeListener != null) {
+				closeListener.run();
+			}
+		}
+	}
+
+	private void closeConnection() {
+		if (dataStatement == null) {
+			return;
+		}
+		if (diagnosticsMonitor != null) {
+			diagnosticsMonitor.stop();
+		}
+
+		// consumer stopped before the end of the result, the query must not keep running on the server
+		final boolean interrupted = started && !finished;
+		if (interrupted) {
+			cancel();
+		}
+
+		final Connection conn;
+		try {
+			conn = dataStatement.getConnection();
 		} catch (SQLException e) {
 			throw new IllegalStateException(e);
 		}
+		Future<?> closing = CLOSE_EXECUTOR.submit(new Runnable() {
+			@Override
+			public void run() {
+				if (conn == null) {
+					return;
+				}
+				RuntimeException failure = null;
+				try {
+					if (!conn.isClosed()) {
+						if (interrupted || cancelled) {
+							conn.rollback();
+						} else {
+							conn.commit();
+						}
+					}
+				} catch (SQLException e) {
+					failure = new IllegalStateException(e);
+				} catch (RuntimeException e) {
+					failure = e;
+				}
+				// connection is closed even if the transaction cannot be ended, so that it is returned to the pool
+				try {
+					conn.close();
+				} catch (SQLException e) {
+					if (failure == null) {
+						failure = new IllegalStateException(e);
+					} else {
+						failure.addSuppressed(e);
+					}
+				}
+				if (failure != null) {
+					throw failure;
+				}
+			}
+		});
+		try {
+			closing.get(closeTimeout, TimeUnit.MILLISECONDS);
+			if (finished && !cancelled && completionListener != null) {
+				completionListener.run();
+			}
+		} catch (TimeoutException e) {
+			log.warn("Connection was not closed within " + closeTimeout + " ms, aborting it");
+			abort(conn);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abort(conn);
+		} catch (ExecutionException e) {
+			if (!interrupted && !cancelled) {
+				final Throwable cause = e.getCause();
+				throw cause instanceof IllegalStateException ? (IllegalStateException) cause
+					: new IllegalStateException(cause);
+			}
+			log.debug("Cannot close cancelled connection", e);
+		}
+	}
+
+	/**
+	 * Frees buffers of batches that have not been processed, e.g. when a parallel import fails.
+	 */
+	private void closeBatches() {
+		final List<BatchSpliterator> batches;
+		synchronized (openBatches) {
+			batches = new ArrayList<BatchSpliterator>(openBatches);
+		}
+		for (BatchSpliterator batch : batches) {
+			batch.close();
+		}
+	}
+
+	private void abort(Connection conn) {
+		try {
+			conn.abort(CLOSE_EXECUTOR);
+		} catch (Throwable e) {
+			log.warn("Cannot abort connection", e);
+		}
 	}
 
 }
@@ -0,0 +1,312 @@
+package com.belladati.sdk.connector.example.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.belladati.sdk.connector.example.jdbc.JdbcDialect;
+
+/**
+ * Session settings applied to a connection before it is used by {@link PostgreDataProvider}. Every setting with
+ * {@code null} value keeps the server default. Settings are named as in PostgreSQL, other dialects apply the settings
+ * they have an equivalent for.
+ * @author Lubomir Elko
+ */
+public class PostgreSessionProfile {
+	private final static Log log = LogFactory.getLog(PostgreSessionProfile.class);
+
+	/** Name of the profile used in logs **/
+	private final String name;
+
+	/** Flag if transactions should be read-only **/
+	private Boolean readOnly;
+
+	/** Flag if read-only transactions should wait for a safe snapshot instead of risking serialization failures **/
+	private Boolean deferrable;
+
+	/** Maximal duration of any statement in milliseconds, 0 disables the timeout **/
+	private Integer statementTimeout;
+
+	/** Maximal time waiting for a lock in milliseconds, 0 disables the timeout **/
+	private Integer lockTimeout;
+
+	/** Memory used by sort and hash operations, e.g. {@code 64MB} **/
+	private String workMem;
+
+	/** Flag if JIT compilation of queries should be used, available since PostgreSQL 11 **/
+	private Boolean jit;
+
+	/** Application name visible in {@code pg_stat_activity} **/
+	private String applicationName;
+
+	/** Number of rows fetched from the server at once, 0 means all rows at once **/
+	private Integer fetchSize;
+
+	/**
+	 * Creates profile with given name that keeps all server defaults.
+	 * @param name Name of the profile used in logs
+	 */
+	public PostgreSessionProfile(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns profile for preview of data: short read-only queries where JIT compilation costs more than it saves.
+	 * @return Preview profile
+	 */
+	public static PostgreSessionProfile preview() {
+		PostgreSessionProfile profile = new PostgreSessionProfile("preview");
+		profile.setReadOnly(true);
+		profile.setStatementTimeout(60000);
+		profile.setJit(false);
+		profile.setApplicationName("BellaDati connector preview");
+		return profile;
+	}
+
+	/**
+	 * Returns profile for validation of configuration: read-only queries that must not wait for locks.
+	 * @return Validation profile
+	 */
+	public static PostgreSessionProfile validation() {
+		PostgreSessionProfile profile = new PostgreSessionProfile("validation");
+		profile.setReadOnly(true);
+		profile.setStatementTimeout(15000);
+		profile.setLockTimeout(5000);
+		profile.setJit(false);
+		profile.setApplicationName("BellaDati connector validation");
+		return profile;
+	}
+
+	/**
+	 * Returns profile for bulk import: long read-only extracts streamed in batches with more memory for sorts and
+	 * hashes.
+	 * @return Import profile
+	 */
+	public static PostgreSessionProfile bulkImport() {
+		PostgreSessionProfile profile = new PostgreSessionProfile("import");
+		profile.setReadOnly(true);
+		profile.setDeferrable(true);
+		profile.setStatementTimeout(0);
+		profile.setWorkMem("64MB");
+		profile.setApplicationName("BellaDati connector import");
+		profile.setFetchSize(10000);
+		return profile;
+	}
+
+	/**
+	 * Applies all settings of this profile to the given connection. It must be called before the first transaction is
+	 * started on the connection, i.e. while the connection is in auto-commit mode. Failure of the settings is logged
+	 * only, since the connection remains usable with server defaults.
+	 * @param connection Database connection in auto-commit mode
+	 * @param dialect Dialect of the database, it ignores settings that the database doesn't know
+	 */
+	public void apply(Connection connection, JdbcDialect dialect) {
+		Map<String, String> settings = getSettings();
+		if (settings.isEmpty()) {
+			return;
+		}
+		try {
+			dialect.applySessionSettings(connection, settings);
+		} catch (SQLException e) {
+			log.warn("Cannot apply session profile " + name + ": " + settings, e);
+		}
+	}
+
+	/**
+	 * Returns key of the session settings of this profile. Pooled connections keep the settings, so a connection can be
+	 * reused without applying the profile again only by a profile with the same key.
+	 * @return Key of the session settings
+	 */
+	public String getSessionKey() {
+		return name + "[readOnly=" + readOnly + ", deferrable=" + deferrable + ", statementTimeout=" + statementTimeout
+			+ ", lockTimeout=" + lockTimeout + ", workMem=" + workMem + ", jit=" + jit + ", applicationName="
+			+ applicationName + "]";
+	}
+
+	/**
+	 * Returns server configuration parameters set by this profile.
+	 * @return Ordered map of configuration parameters and their values
+	 */
+	private Map<String, String> getSettings() {
+		Map<String, String> settings = new LinkedHashMap<String, String>();
+		if (readOnly != null) {
+			settings.put("default_transaction_read_only", onOff(readOnly));
+		}
+		if (deferrable != null) {
+			// deferrable has effect only on serializable read-only transactions
+			if (deferrable) {
+				settings.put("default_transaction_isolation", "serializable");
+			}
+			settings.put("default_transaction_deferrable", onOff(deferrable));
+		}
+		if (statementTimeout != null) {
+			settings.put("statement_timeout", String.valueOf(statementTimeout));
+		}
+		if (lockTimeout != null) {
+			settings.put("lock_timeout", String.valueOf(lockTimeout));
+		}
+		if (workMem != null) {
+			settings.put("work_mem", workMem);
+		}
+		if (jit != null) {
+			settings.put("jit", onOff(jit));
+		}
+		if (applicationName != null) {
+			settings.put("application_name", applicationName);
+		}
+		return settings;
+	}
+
+	private String onOff(boolean value) {
+		return value ? "on" : "off";
+	}
+
+	/**
+	 * Returns name of the profile used in logs.
+	 * @return Name of the profile
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns flag if transactions are read-only, applied as {@code default_transaction_read_only}.
+	 * @return Flag or {@code null} for server default
+	 */
+	public Boolean getReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Sets flag if transactions should be read-only.
+	 * @param readOnly Flag or {@code null} for server default
+	 */
+	public void setReadOnly(Boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * Returns flag if read-only transactions wait for a safe snapshot, applied as
+	 * {@code default_transaction_deferrable} together with serializable isolation.
+	 * @return Flag or {@code null} for server default
+	 */
+	public Boolean getDeferrable() {
+		return deferrable;
+	}
+
+	/**
+	 * Sets flag if read-only transactions should wait for a safe snapshot instead of risking serialization failures.
+	 * Serializable isolation is set too, except on hot standby servers.
+	 * @param deferrable Flag or {@code null} for server default
+	 */
+	public void setDeferrable(Boolean deferrable) {
+		this.deferrable = deferrable;
+	}
+
+	/**
+	 * Returns maximal duration of any statement, applied as {@code statement_timeout}.
+	 * @return Timeout in milliseconds, 0 if disabled or {@code null} for server default
+	 */
+	public Integer getStatementTimeout() {
+		return statementTimeout;
+	}
+
+	/**
+	 * Sets maximal duration of any statement.
+	 * @param statementTimeout Timeout in milliseconds, 0 to disable or {@code null} for server default
+	 */
+	public void setStatementTimeout(Integer statementTimeout) {
+		this.statementTimeout = statementTimeout;
+	}
+
+	/**
+	 * Returns maximal time waiting for a lock, applied as {@code lock_timeout}.
+	 * @return Timeout in milliseconds, 0 if disabled or {@code null} for server default
+	 */
+	public Integer getLockTimeout() {
+		return lockTimeout;
+	}
+
+	/**
+	 * Sets maximal time waiting for a lock.
+	 * @param lockTimeout Timeout in milliseconds, 0 to disable or {@code null} for server default
+	 */
+	public void setLockTimeout(Integer lockTimeout) {
+		this.lockTimeout = lockTimeout;
+	}
+
+	/**
+	 * Returns memory used by sort and hash operations, applied as {@code work_mem}.
+	 * @return Memory with unit, e.g. {@code 64MB}, or {@code null} for server default
+	 */
+	public String getWorkMem() {
+		return workMem;
+	}
+
+	/**
+	 * Sets memory used by sort and hash operations.
+	 * @param workMem Memory with unit, e.g. {@code 64MB}, or {@code null} for server default
+	 */
+	public void setWorkMem(String workMem) {
+		this.workMem = workMem;
+	}
+
+	/**
+	 * Returns flag if JIT compilation of queries is used, applied as {@code jit} on PostgreSQL 11 and newer.
+	 * @return Flag or {@code null} for server default
+	 */
+	public Boolean getJit() {
+		return jit;
+	}
+
+	/**
+	 * Sets flag if JIT compilation of queries should be used, older servers ignore it.
+	 * @param jit Flag or {@code null} for server default
+	 */
+	public void setJit(Boolean jit) {
+		this.jit = jit;
+	}
+
+	/**
+	 * Returns application name visible in {@code pg_stat_activity}, applied as {@code application_name}.
+	 * @return Application name or {@code null} for driver default
+	 */
+	public String getApplicationName() {
+		return applicationName;
+	}
+
+	/**
+	 * Sets application name visible in {@code pg_stat_activity}.
+	 * @param applicationName Application name or {@code null} for driver default
+	 */
+	public void setApplicationName(String applicationName) {
+		this.applicationName = applicationName;
+	}
+
+	/**
+	 * Returns number of rows fetched from the server at once. It is set on statements, not on the session, so it is not
+	 * part of the session key.
+	 * @return Number of rows, 0 for all rows at once or {@code null} for driver default
+	 */
+	public Integer getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Sets number of rows fetched from the server at once.
+	 * @param fetchSize Number of rows, 0 for all rows at once or {@code null} for driver default
+	 */
+	public void setFetchSize(Integer fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	@Override
+	public String toString() {
+		return "PostgreSessionProfile[" + name + "]";
+	}
+
+}
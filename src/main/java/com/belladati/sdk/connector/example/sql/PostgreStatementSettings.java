@@ -0,0 +1,132 @@
+package com.belladati.sdk.connector.example.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.postgresql.PGStatement;
+
+/**
+ * Settings of the PostgreSQL driver for reuse of server-side prepared statements and binary transfer of values. The
+ * driver caches statements per connection, so they are reused only together with pooled connections.
+ * <p>
+ * The driver uses a named server-side statement once the same SQL query has been executed {@link #prepareThreshold}
+ * times on a connection; the following executions skip parsing and planning. Values of types enabled for binary
+ * transfer are sent in binary format by named statements only, so import statements are forced to use a named
+ * statement from the first execution. Values are still read as strings, formatted by the driver.
+ * @author Lubomir Elko
+ */
+public class PostgreStatementSettings {
+
+	/** Default types transferred in binary format: numeric and temporal types **/
+	public static final String DEFAULT_BINARY_TYPES = "INT2,INT4,INT8,FLOAT4,FLOAT8,NUMERIC,DATE,TIME,TIMESTAMP,"
+		+ "TIMESTAMPTZ";
+
+	/** Number of executions of the same query after which a named server-side statement is used, 0 disables it **/
+	private int prepareThreshold = 1;
+
+	/** Maximal number of queries cached by the driver per connection **/
+	private int cacheQueries = 256;
+
+	/** Maximal size of queries cached by the driver per connection in MiB **/
+	private int cacheSizeMiB = 5;
+
+	/** Flag if values may be transferred in binary format **/
+	private boolean binaryTransfer = true;
+
+	/** Comma separated names or OIDs of types transferred in binary format **/
+	private String binaryTypes = DEFAULT_BINARY_TYPES;
+
+	/** Flag if import statements should use binary format from the first execution **/
+	private boolean binaryImport = true;
+
+	/**
+	 * Adds driver properties of these settings to the given connection properties. Properties set in the data provider
+	 * configuration take precedence.
+	 * @param properties Connection properties
+	 */
+	public void apply(Properties properties) {
+		setDefault(properties, "prepareThreshold", String.valueOf(prepareThreshold));
+		setDefault(properties, "preparedStatementCacheQueries", String.valueOf(cacheQueries));
+		setDefault(properties, "preparedStatementCacheSizeMiB", String.valueOf(cacheSizeMiB));
+		setDefault(properties, "binaryTransfer", String.valueOf(binaryTransfer));
+		if (binaryTransfer && binaryTypes != null && !binaryTypes.isEmpty()) {
+			setDefault(properties, "binaryTransferEnable", binaryTypes);
+		}
+	}
+
+	private void setDefault(Properties properties, String key, String value) {
+		if (!properties.containsKey(key)) {
+			properties.setProperty(key, value);
+		}
+	}
+
+	/**
+	 * Configures the given import statement to use a named server-side statement and binary format from the first
+	 * execution.
+	 * @param statement Precompiled SQL statement of the PostgreSQL driver
+	 * @throws SQLException if the statement cannot be configured
+	 */
+	public void configureImport(PreparedStatement statement) throws SQLException {
+		if (binaryTransfer && binaryImport && statement.isWrapperFor(PGStatement.class)) {
+			// negative threshold forces binary transfer
+			statement.unwrap(PGStatement.class).setPrepareThreshold(-1);
+		}
+	}
+
+	public int getPrepareThreshold() {
+		return prepareThreshold;
+	}
+
+	public void setPrepareThreshold(int prepareThreshold) {
+		this.prepareThreshold = prepareThreshold;
+	}
+
+	public int getCacheQueries() {
+		return cacheQueries;
+	}
+
+	public void setCacheQueries(int cacheQueries) {
+		this.cacheQueries = cacheQueries;
+	}
+
+	public int getCacheSizeMiB() {
+		return cacheSizeMiB;
+	}
+
+	public void setCacheSizeMiB(int cacheSizeMiB) {
+		this.cacheSizeMiB = cacheSizeMiB;
+	}
+
+	public boolean isBinaryTransfer() {
+		return binaryTransfer;
+	}
+
+	public void setBinaryTransfer(boolean binaryTransfer) {
+		this.binaryTransfer = binaryTransfer;
+	}
+
+	public String getBinaryTypes() {
+		return binaryTypes;
+	}
+
+	public void setBinaryTypes(String binaryTypes) {
+		this.binaryTypes = binaryTypes;
+	}
+
+	public boolean isBinaryImport() {
+		return binaryImport;
+	}
+
+	public void setBinaryImport(boolean binaryImport) {
+		this.binaryImport = binaryImport;
+	}
+
+	@Override
+	public String toString() {
+		return "PostgreStatementSettings[prepareThreshold=" + prepareThreshold + ", cacheQueries=" + cacheQueries
+			+ ", cacheSizeMiB=" + cacheSizeMiB + ", binaryTransfer=" + binaryTransfer + ", binaryTypes=" + binaryTypes
+			+ ", binaryImport=" + binaryImport + "]";
+	}
+
+}
@@ -0,0 +1,201 @@
+package com.belladati.sdk.connector.example;
+
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+import org.testng.Reporter;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.connector.PropertyValueApi;
+import com.belladati.sdk.connector.PropertyValueApi.IntegerValue;
+import com.belladati.sdk.connector.RowApi;
+import com.belladati.sdk.connector.example.generator.RandomDataProvider;
+import com.belladati.sdk.connector.example.generator.RandomRow;
+import com.belladati.sdk.connector.example.generator.RandomRows;
+import com.belladati.sdk.connector.example.sql.PostgreRows;
+
+/**
+ * Tests verifying that per-row hot paths don't allocate more memory than their budget. Allocated bytes are measured by
+ * thread allocation counters of the JVM, the report with all paths is reported at the end.
+ * <p>
+ * Allocation per row depends on JVM flags like compressed references, compact strings or TLAB sizing, so default
+ * budgets are about four times the allocation measured on a 64-bit JVM with default flags. They catch regressions
+ * like per-row copies of the whole row, not small changes. The test runs in the default build and is skipped on JVMs
+ * without thread allocation counters.
+ * <p>
+ * Budgets in bytes per row can be changed by system properties {@code allocation.budget.<path>}, e.g.
+ * {@code -Dallocation.budget.randomRowsIterator=2048}.
+ * @author Lubomir Elko
+ */
+public class AllocationBudgetTest {
+
+	/** Number of rows used to warm up JIT compiler before measuring **/
+	private static final int WARMUP_ROWS = 50000;
+
+	/** Number of measured rows **/
+	private static final int MEASURED_ROWS = 20000;
+
+	/** Number of measurements, the lowest result is used to filter out noise **/
+	private static final int ROUNDS = 5;
+
+	/** Number of columns of the stub result set **/
+	private static final int SQL_COLUMNS = 8;
+
+	/** Measured paths in order of execution **/
+	private final List<String> report = new ArrayList<String>();
+
+	/** Thread allocation counters of the JVM **/
+	private com.sun.management.ThreadMXBean threadBean;
+
+	@BeforeClass(alwaysRun = true)
+	public void setUp() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)
+			|| !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			throw new SkipException("Thread allocation counters are not supported by this JVM");
+		}
+		threadBean = (com.sun.management.ThreadMXBean) bean;
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	@AfterClass(alwaysRun = true)
+	public void printReport() {
+		StringBuilder sb = new StringBuilder(String.format(Locale.ENGLISH, "%nAllocation per row:%n%-24s %12s %12s %8s%n",
+			"Path", "Bytes/row", "Budget", "Usage"));
+		for (String line : report) {
+			sb.append(line);
+		}
+		Reporter.log(sb.toString(), true);
+	}
+
+	@Test
+	public void testRandomRowsIterator() {
+		final RandomRows rows = new RandomRows(createRandomProperties(), true, -1);
+		assertWithinBudget("randomRowsIterator", 4096, new RowSource() {
+			@Override
+			public Iterator<? extends RowApi> iterator() {
+				return rows.iterator();
+			}
+		});
+	}
+
+	@Test
+	public void testRandomRowsSpliterator() {
+		final RandomRows rows = new RandomRows(createRandomProperties(), true, -1);
+		assertWithinBudget("randomRowsSpliterator", 4096, new RowSource() {
+			@Override
+			public Iterator<? extends RowApi> iterator() {
+				Spliterator<RandomRow> spliterator = rows.spliterator();
+				return Spliterators.iterator(spliterator);
+			}
+		});
+	}
+
+	@Test
+	public void testPostgreRowsIterator() {
+		assertWithinBudget("postgreRowsIterator", 512, new RowSource() {
+			@Override
+			public Iterator<? extends RowApi> iterator() {
+				return new PostgreRows(JdbcStubs.createStatement(SQL_COLUMNS, -1, true, null)).iterator();
+			}
+
+			@Override
+			public long baseline(int count) {
+				// allocations of the stub result set itself are not counted
+				ResultSet resultSet = JdbcStubs.createResultSet(SQL_COLUMNS, -1, true, null);
+				long start = allocatedBytes();
+				try {
+					for (int i = 0; i < count && resultSet.next(); i++) {
+						for (int c = 1; c <= SQL_COLUMNS; c++) {
+							resultSet.getString(c);
+						}
+					}
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+				return allocatedBytes() - start;
+			}
+		});
+	}
+
+	/**
+	 * Measures bytes allocated per row by the given source and compares them with the budget.
+	 * @param path Name of the measured path
+	 * @param defaultBudget Default budget in bytes per row
+	 * @param source Source of the rows
+	 */
+	private void assertWithinBudget(String path, long defaultBudget, RowSource source) {
+		long budget = Long.getLong("allocation.budget." + path, defaultBudget);
+
+		consume(source.iterator(), WARMUP_ROWS);
+		source.baseline(WARMUP_ROWS);
+
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			Iterator<? extends RowApi> iterator = source.iterator();
+			long start = allocatedBytes();
+			consume(iterator, MEASURED_ROWS);
+			long allocated = allocatedBytes() - start - source.baseline(MEASURED_ROWS);
+			best = Math.min(best, allocated);
+		}
+		long perRow = Math.max(0, best / MEASURED_ROWS);
+
+		long usage = perRow * 100 / budget;
+		report.add(String.format(Locale.ENGLISH, "%-24s %12d %12d %7d%%%n", path, perRow, budget, usage));
+		assertTrue(perRow <= budget, path + " allocates " + perRow + " bytes per row, budget is " + budget);
+	}
+
+	private void consume(Iterator<? extends RowApi> iterator, int count) {
+		for (int i = 0; i < count && iterator.hasNext(); i++) {
+			if (iterator.next().getLength() == 0) {
+				throw new IllegalStateException("Empty row");
+			}
+		}
+	}
+
+	private long allocatedBytes() {
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private Map<String, PropertyValueApi<?>> createRandomProperties() {
+		Map<String, PropertyValueApi<?>> properties = new RandomDataProvider(null).getDefaultProperties();
+		properties.put("numberOfRows", new IntegerValue(Integer.MAX_VALUE, true));
+		return properties;
+	}
+
+	/**
+	 * Source of measured rows.
+	 * @author Lubomir Elko
+	 */
+	private abstract class RowSource {
+
+		/**
+		 * Returns new iterator over the measured rows.
+		 * @return Iterator over rows
+		 */
+		public abstract Iterator<? extends RowApi> iterator();
+
+		/**
+		 * Returns bytes allocated by test infrastructure for the given number of rows, that should not be counted.
+		 * @param count Number of rows
+		 * @return Allocated bytes
+		 */
+		public long baseline(int count) {
+			return 0;
+		}
+
+	}
+
+}
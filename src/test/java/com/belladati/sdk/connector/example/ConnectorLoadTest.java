@@ -0,0 +1,374 @@
+package com.belladati.sdk.connector.example;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.connector.DataProviderApi;
+import com.belladati.sdk.connector.ProgressBarApi;
+import com.belladati.sdk.connector.PropertyValueApi;
+import com.belladati.sdk.connector.PropertyValueApi.IntegerValue;
+import com.belladati.sdk.connector.PropertyValueApi.StringValue;
+import com.belladati.sdk.connector.RowApi;
+import com.belladati.sdk.connector.RowsApi;
+import com.belladati.sdk.connector.example.generator.RandomDataProvider;
+import com.belladati.sdk.connector.example.jdbc.H2Dialect;
+import com.belladati.sdk.connector.example.jdbc.JdbcImportScheduler;
+import com.belladati.sdk.connector.example.sql.PostgreDataProvider;
+
+/**
+ * Load test driving the whole {@link DataProviderApi} lifecycle of both data providers from concurrent threads. By
+ * default the PostgreSQL data provider runs with {@link H2Dialect} against in-memory H2 database with seeded data, so
+ * its numbers show the overhead of the connector, not of the PostgreSQL driver and server. With system property
+ * {@code loadtest.postgresql.url} set, e.g. {@code jdbc:postgresql://localhost:5432/test}, it runs with the default
+ * dialect against that database instead, the user and password are set by {@code loadtest.postgresql.user} and
+ * {@code loadtest.postgresql.password}. The seeded table is created in the database and dropped at the end. Latency
+ * percentiles and throughput of every operation are reported at the end, together with the database that was used.
+ * <p>
+ * The test is excluded from the default build, run it by {@code mvn test -P load-test}. Load can be changed by system
+ * properties {@code loadtest.threads}, {@code loadtest.iterations} and {@code loadtest.rows}.
+ * @author Lubomir Elko
+ */
+@Test(groups = "load")
+public class ConnectorLoadTest {
+
+	/** Number of concurrent threads **/
+	private static final int THREADS = Integer.getInteger("loadtest.threads", 8);
+
+	/** Number of calls of every operation **/
+	private static final int ITERATIONS = Integer.getInteger("loadtest.iterations", 200);
+
+	/** Number of rows in the seeded table and generated by the random data provider **/
+	private static final int ROWS = Integer.getInteger("loadtest.rows", 10000);
+
+	/** Number of rows requested by preview **/
+	private static final int PREVIEW_LIMIT = 10;
+
+	/** Name of the in-memory database, kept open until the last connection is closed **/
+	private static final String DATABASE = "mem:loadtest;DB_CLOSE_DELAY=-1";
+
+	/** URL of PostgreSQL database to run the PostgreSQL data provider against, in-memory H2 database if not set **/
+	private static final String POSTGRESQL_URL = System.getProperty("loadtest.postgresql.url");
+
+	/** Name of the seeded table **/
+	private static final String TABLE = "belladati_loadtest_sales";
+
+	/** Statistics of all operations in order of execution **/
+	private final Map<String, OperationStats> stats = Collections
+		.synchronizedMap(new LinkedHashMap<String, OperationStats>());
+
+	/** Connection seeding the database, it also keeps the in-memory database alive **/
+	private Connection keepAlive;
+
+	@BeforeClass(alwaysRun = true)
+	public void setUp() throws Exception {
+		if (POSTGRESQL_URL != null) {
+			keepAlive = DriverManager.getConnection(POSTGRESQL_URL, System.getProperty("loadtest.postgresql.user"),
+				System.getProperty("loadtest.postgresql.password"));
+		} else {
+			JdbcDataSource dataSource = new JdbcDataSource();
+			dataSource.setURL("jdbc:h2:" + DATABASE + ";MODE=PostgreSQL");
+			keepAlive = dataSource.getConnection();
+		}
+		Statement statement = keepAlive.createStatement();
+		try {
+			statement.execute("DROP TABLE IF EXISTS " + TABLE);
+			statement.execute("CREATE TABLE " + TABLE + " (id INT PRIMARY KEY, region VARCHAR(50), product VARCHAR(50),"
+				+ " amount DECIMAL(12, 2), created TIMESTAMP)");
+			if (POSTGRESQL_URL != null) {
+				statement.execute("INSERT INTO " + TABLE + " SELECT x, 'Region ' || x % 10, 'Product ' || x % 97,"
+					+ " x * 1.25, TIMESTAMP '2016-01-01 00:00:00' + x * INTERVAL '1 minute' FROM generate_series(1, "
+					+ ROWS + ") AS x");
+			} else {
+				statement.execute("INSERT INTO " + TABLE + " SELECT x, 'Region ' || MOD(x, 10), 'Product ' || MOD(x, 97),"
+					+ " x * 1.25, DATEADD('MINUTE', x, TIMESTAMP '2016-01-01 00:00:00') FROM SYSTEM_RANGE(1, " + ROWS + ")");
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	@AfterClass(alwaysRun = true)
+	public void tearDown() throws Exception {
+		printReport();
+		if (keepAlive != null) {
+			try {
+				Statement statement = keepAlive.createStatement();
+				try {
+					statement.execute("DROP TABLE IF EXISTS " + TABLE);
+				} finally {
+					statement.close();
+				}
+			} finally {
+				keepAlive.close();
+			}
+		}
+	}
+
+	public void testPostgreDataProvider() throws Exception {
+		final PostgreDataProvider provider = createPostgreDataProvider();
+		runLifecycle("PostgreSQL", provider, ROWS);
+	}
+
+	public void testRandomDataProvider() throws Exception {
+		Map<String, PropertyValueApi<?>> properties = new RandomDataProvider(null).getDefaultProperties();
+		properties.put("numberOfRows", new IntegerValue(ROWS, true));
+		runLifecycle("Random", new RandomDataProvider(properties), ROWS);
+	}
+
+	private PostgreDataProvider createPostgreDataProvider() {
+		Map<String, PropertyValueApi<?>> properties = new PostgreDataProvider(null).getDefaultProperties();
+		properties.put("sqlQuery", new StringValue("SELECT id, region, product, amount, created FROM " + TABLE
+			+ " ORDER BY id;", true));
+		if (POSTGRESQL_URL == null) {
+			properties.put("database", new StringValue(DATABASE, true));
+			PostgreDataProvider provider = new PostgreDataProvider(properties);
+			provider.setDialect(new H2Dialect());
+			return provider;
+		}
+		// jdbc:postgresql://host:port/database, connection properties are passed as the connector configuration
+		URI uri = URI.create(POSTGRESQL_URL.substring("jdbc:".length()));
+		properties.put("host", new StringValue(uri.getHost(), true));
+		if (uri.getPort() != -1) {
+			properties.put("port", new IntegerValue(uri.getPort(), true));
+		}
+		properties.put("database", new StringValue(uri.getPath().substring(1), true));
+		properties.put("user", new StringValue(System.getProperty("loadtest.postgresql.user"), false));
+		properties.put("password", new StringValue(System.getProperty("loadtest.postgresql.password"), false, true));
+		return new PostgreDataProvider(properties);
+	}
+
+	/**
+	 * Runs all lifecycle operations of the given data provider concurrently and checks the results.
+	 * @param name Name of the data provider in the report
+	 * @param provider Tested data provider
+	 * @param expectedRows Number of rows expected in import
+	 */
+	private void runLifecycle(String name, final DataProviderApi<? extends RowsApi<?>> provider, final int expectedRows)
+		throws Exception {
+		run(name + " check()", new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				try {
+					assertTrue(provider.check());
+				} catch (Throwable e) {
+					throw new IllegalStateException(e);
+				}
+				return null;
+			}
+		});
+		run(name + " validate()", new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				assertEquals(provider.validate().size(), 0, "Validation errors");
+				return null;
+			}
+		});
+		run(name + " providePreviewData()", new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				assertEquals(consume(provider.providePreviewData(PREVIEW_LIMIT)), PREVIEW_LIMIT);
+				return null;
+			}
+		});
+		run(name + " provideImportData()", new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				assertEquals(consume(provider.provideImportData(createProgressBar())), expectedRows);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Reads all rows and closes them.
+	 * @param rows Provided rows
+	 * @return Number of rows
+	 */
+	private int consume(RowsApi<?> rows) throws Exception {
+		int count = 0;
+		try {
+			for (RowApi row : rows) {
+				if (row.getValues() != null) {
+					count++;
+				}
+			}
+		} finally {
+			rows.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Calls the given operation {@link #ITERATIONS} times from {@link #THREADS} threads and records latencies.
+	 * @param operation Name of the operation
+	 * @param task Operation to call
+	 */
+	private void run(String operation, final Callable<Object> task) throws Exception {
+		final OperationStats operationStats = new OperationStats(operation);
+		stats.put(operation, operationStats);
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final AtomicInteger remaining = new AtomicInteger(ITERATIONS);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			long start = System.nanoTime();
+			for (int t = 0; t < THREADS; t++) {
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						while (remaining.getAndDecrement() > 0) {
+							long callStart = System.nanoTime();
+							try {
+								task.call();
+								operationStats.record(System.nanoTime() - callStart);
+							} catch (Throwable e) {
+								operationStats.recordError(e);
+							}
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			operationStats.setElapsed(System.nanoTime() - start);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(operationStats.getErrors(), 0, operation + " failed: " + operationStats.getFirstError());
+	}
+
+	/**
+	 * Creates progress bar that ignores all updates.
+	 * @return Stub of {@link ProgressBarApi}
+	 */
+	private ProgressBarApi createProgressBar() {
+		return (ProgressBarApi) Proxy.newProxyInstance(ProgressBarApi.class.getClassLoader(),
+			new Class<?>[] { ProgressBarApi.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getDeclaringClass() == Object.class) {
+						return method.invoke(this, args);
+					}
+					return null;
+				}
+			});
+	}
+
+	private void printReport() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format(Locale.ENGLISH, "%nConnector load test: %d threads, %d iterations, %d rows%n", THREADS,
+			ITERATIONS, ROWS));
+		report.append(POSTGRESQL_URL != null ? "PostgreSQL data provider database: " + POSTGRESQL_URL
+			: "PostgreSQL data provider database: in-memory H2 with H2Dialect, PostgreSQL driver and server are not"
+				+ " measured, set loadtest.postgresql.url to run against PostgreSQL").append(String.format("%n"));
+		report.append(String.format(Locale.ENGLISH, "%-40s %8s %7s %10s %10s %10s %12s%n", "Operation", "Calls", "Errors",
+			"p50 [ms]", "p99 [ms]", "max [ms]", "Calls/s"));
+		synchronized (stats) {
+			for (OperationStats operationStats : stats.values()) {
+				report.append(operationStats.format());
+			}
+		}
+		report.append(JdbcImportScheduler.getDefault()).append(String.format("%n"));
+		Reporter.log(report.toString(), true);
+	}
+
+	/**
+	 * Latencies and errors of one operation.
+	 * @author Lubomir Elko
+	 */
+	private static class OperationStats {
+
+		/** Name of the operation **/
+		private final String operation;
+
+		/** Latencies of successful calls in nanoseconds **/
+		private final List<Long> latencies = new ArrayList<Long>();
+
+		/** Number of failed calls **/
+		private int errors;
+
+		/** First error, used in assertion message **/
+		private Throwable firstError;
+
+		/** Wall-clock time of all calls in nanoseconds **/
+		private long elapsed;
+
+		public OperationStats(String operation) {
+			this.operation = operation;
+		}
+
+		public synchronized void record(long latency) {
+			latencies.add(latency);
+		}
+
+		public synchronized void recordError(Throwable error) {
+			if (firstError == null) {
+				firstError = error;
+			}
+			errors++;
+		}
+
+		public synchronized int getErrors() {
+			return errors;
+		}
+
+		public synchronized Throwable getFirstError() {
+			return firstError;
+		}
+
+		public synchronized void setElapsed(long elapsed) {
+			this.elapsed = elapsed;
+		}
+
+		public synchronized String format() {
+			List<Long> sorted = new ArrayList<Long>(latencies);
+			Collections.sort(sorted);
+			int calls = sorted.size() + errors;
+			double throughput = elapsed > 0 ? calls * 1e9d / elapsed : 0d;
+			return String.format(Locale.ENGLISH, "%-40s %8d %7d %10.2f %10.2f %10.2f %12.1f%n", operation, calls, errors,
+				toMillis(percentile(sorted, 50)), toMillis(percentile(sorted, 99)), toMillis(percentile(sorted, 100)),
+				throughput);
+		}
+
+		private long percentile(List<Long> sorted, int percentile) {
+			if (sorted.isEmpty()) {
+				return 0;
+			}
+			int index = (int) Math.ceil(percentile / 100d * sorted.size()) - 1;
+			return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+		}
+
+		private double toMillis(long nanos) {
+			return nanos / 1e6d;
+		}
+
+	}
+
+}
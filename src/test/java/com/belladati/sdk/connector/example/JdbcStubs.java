@@ -0,0 +1,110 @@
+package com.belladati.sdk.connector.example;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.List;
+
+/**
+ * Stubs of JDBC objects for tests of rows that need no database, e.g. to measure allocations or memory accounting.
+ * @author Lubomir Elko
+ */
+public final class JdbcStubs {
+
+	private JdbcStubs() {}
+
+	/**
+	 * Creates statement returning a new stub result set on every execution.
+	 * @param columns Number of columns
+	 * @param rowCount Number of rows or -1 for endless result set
+	 * @param constantValues {@code true} to return the same value objects on every row, so that no memory is
+	 *            allocated for values
+	 * @param fetchSizes List recording fetch sizes set on the result set or {@code null}
+	 * @return Stub of {@link PreparedStatement}
+	 */
+	public static PreparedStatement createStatement(final int columns, final int rowCount,
+		final boolean constantValues, final List<Integer> fetchSizes) {
+		return stub(PreparedStatement.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("executeQuery".equals(method.getName())) {
+					return createResultSet(columns, rowCount, constantValues, fetchSizes);
+				}
+				return defaultValue(method);
+			}
+		});
+	}
+
+	/**
+	 * Creates result set with generated values.
+	 * @param columns Number of columns
+	 * @param rowCount Number of rows or -1 for endless result set
+	 * @param constantValues {@code true} to return the same value objects on every row, so that no memory is
+	 *            allocated for values
+	 * @param fetchSizes List recording fetch sizes set on the result set or {@code null}
+	 * @return Stub of {@link ResultSet}
+	 */
+	public static ResultSet createResultSet(final int columns, final int rowCount, final boolean constantValues,
+		final List<Integer> fetchSizes) {
+		final String[] values = new String[columns];
+		for (int i = 0; i < columns; i++) {
+			values[i] = "Value " + i;
+		}
+		final ResultSetMetaData metaData = stub(ResultSetMetaData.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return "getColumnCount".equals(method.getName()) ? columns : defaultValue(method);
+			}
+		});
+		return stub(ResultSet.class, new InvocationHandler() {
+			private int row;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if ("next".equals(name)) {
+					return rowCount < 0 || ++row <= rowCount;
+				} else if ("getString".equals(name)) {
+					int column = (Integer) args[0];
+					return constantValues ? values[column - 1] : "Value of row " + row + " in column " + column;
+				} else if ("getMetaData".equals(name)) {
+					return metaData;
+				} else if ("setFetchSize".equals(name) && fetchSizes != null) {
+					fetchSizes.add((Integer) args[0]);
+				}
+				return defaultValue(method);
+			}
+		});
+	}
+
+	/**
+	 * Creates stub of the given interface.
+	 * @param type Interface to implement
+	 * @param handler Handler of all method calls
+	 * @return Stub of the interface
+	 */
+	public static <T> T stub(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	/**
+	 * Returns default value of the return type of the given method.
+	 * @param method Called method
+	 * @return {@code false}, zero or {@code null}
+	 */
+	public static Object defaultValue(Method method) {
+		Class<?> type = method.getReturnType();
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+
+}
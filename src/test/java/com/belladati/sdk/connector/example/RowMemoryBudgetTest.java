@@ -0,0 +1,198 @@
+package com.belladati.sdk.connector.example;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.connector.PropertyValueApi;
+import com.belladati.sdk.connector.PropertyValueApi.IntegerValue;
+import com.belladati.sdk.connector.RowApi;
+import com.belladati.sdk.connector.example.generator.RandomDataProvider;
+import com.belladati.sdk.connector.example.generator.RandomRow;
+import com.belladati.sdk.connector.example.generator.RandomRows;
+import com.belladati.sdk.connector.example.sql.PostgreRow;
+import com.belladati.sdk.connector.example.sql.PostgreRows;
+
+/**
+ * Tests to verify accounting and backpressure of {@link RowMemoryBudget}.
+ * @author Lubomir Elko
+ */
+public class RowMemoryBudgetTest {
+
+	@Test
+	public void testEstimateRowBytes() {
+		long empty = RowMemoryBudget.estimateRowBytes(new String[0]);
+		long small = RowMemoryBudget.estimateRowBytes(new String[] { "a", null });
+		long large = RowMemoryBudget.estimateRowBytes(new String[] { "a", "0123456789012345678901234567890123456789" });
+		assertTrue(empty > 0);
+		assertTrue(small > empty);
+		assertTrue(large - small >= 80, "Every character should take at least two bytes");
+	}
+
+	@Test
+	public void testAccounting() {
+		RowMemoryBudget budget = new RowMemoryBudget(1000);
+		RowMemoryBudget.Account first = budget.open("first");
+		RowMemoryBudget.Account second = budget.open("second");
+
+		first.update(600);
+		assertEquals(budget.getUsedBytes(), 600);
+		assertEquals(second.getAvailableBytes(), 400);
+		assertEquals(budget.getAccounts().size(), 2);
+
+		first.close();
+		assertEquals(budget.getUsedBytes(), 0);
+		assertEquals(budget.getAccounts().size(), 1);
+		assertFalse(second.acquire(2000), "The only import holding memory should never wait");
+		assertEquals(budget.getUsedBytes(), 2000);
+	}
+
+	@Test
+	public void testReserveAndRelease() {
+		RowMemoryBudget budget = new RowMemoryBudget(1000);
+		RowMemoryBudget.Account account = budget.open("parallel import");
+		account.reserve(300);
+		account.reserve(200);
+		assertEquals(account.getBytes(), 500);
+		account.release(300);
+		assertEquals(budget.getUsedBytes(), 200);
+		account.release(1000);
+		assertEquals(account.getBytes(), 0, "Held bytes should never be negative");
+	}
+
+	@Test
+	public void testProducerPausedUntilMemoryIsReleased() throws Exception {
+		final RowMemoryBudget budget = new RowMemoryBudget(1000);
+		budget.setMaxPauseMillis(10000);
+		final RowMemoryBudget.Account holder = budget.open("holder");
+		holder.update(900);
+
+		final CountDownLatch waiting = new CountDownLatch(1);
+		Thread releaser = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					waiting.await();
+					Thread.sleep(50);
+				} catch (InterruptedException e) {}
+				holder.update(100);
+			}
+		});
+		releaser.start();
+
+		RowMemoryBudget.Account producer = budget.open("producer");
+		waiting.countDown();
+		long start = System.nanoTime();
+		assertTrue(producer.acquire(500), "Producer should be paused");
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000, "Producer should resume on release");
+		assertEquals(budget.getUsedBytes(), 600);
+		releaser.join();
+	}
+
+	@Test
+	public void testProducerContinuesOverBudget() {
+		RowMemoryBudget budget = new RowMemoryBudget(1000);
+		budget.setMaxPauseMillis(20);
+		budget.open("holder").update(1000);
+
+		RowMemoryBudget.Account producer = budget.open("producer");
+		assertTrue(producer.acquire(500));
+		assertEquals(budget.getUsedBytes(), 1500, "Producer should continue rather than fail");
+	}
+
+	@Test
+	public void testFetchSizeReducedOverBudget() throws Exception {
+		RowMemoryBudget budget = new RowMemoryBudget(64 * 1024);
+		budget.setMaxPauseMillis(1);
+		budget.open("other import").update(60 * 1024);
+
+		List<Integer> fetchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+		PostgreRows rows = new PostgreRows(JdbcStubs.createStatement(4, 5000, false, fetchSizes));
+		rows.setMemoryAccount(budget.open("tested import"), 1000);
+		int count = 0;
+		for (RowApi row : rows) {
+			if (row.getLength() > 0) {
+				count++;
+			}
+		}
+		assertEquals(count, 5000);
+		assertFalse(fetchSizes.isEmpty(), "Fetch size should be reduced");
+		for (int fetchSize : fetchSizes) {
+			assertTrue(fetchSize < 1000, "Fetch size " + fetchSize + " should be reduced");
+		}
+
+		rows.close();
+		assertEquals(budget.getUsedBytes(), 60 * 1024, "Memory of closed import should be released");
+	}
+
+	@Test
+	public void testGeneratorWindowReleased() throws Exception {
+		RowMemoryBudget budget = new RowMemoryBudget(1024 * 1024);
+		budget.setMaxPauseMillis(5);
+		RowMemoryBudget.Account other = budget.open("other import");
+		other.update(1024 * 1024);
+
+		Map<String, PropertyValueApi<?>> properties = new RandomDataProvider(null).getDefaultProperties();
+		properties.put("numberOfRows", new IntegerValue(5000, true));
+		RandomRows rows = new RandomRows(properties, true, -1);
+		RowMemoryBudget.Account account = budget.open("generator");
+		rows.setMemoryAccount(account);
+
+		Iterator<RandomRow> iterator = rows.iterator();
+		iterator.next();
+		long window = account.getBytes();
+		assertTrue(window > 0, "Window of generated rows should be held");
+		for (int i = 0; i < 2000; i++) {
+			iterator.next();
+		}
+		assertEquals(account.getBytes(), window, "Consumed windows should be released");
+		assertTrue(account.getPausedMillis() > 0, "Generator should pause while the budget is exceeded");
+		while (iterator.hasNext()) {
+			iterator.next();
+		}
+		assertEquals(account.getBytes(), 0, "Memory should be released when all rows are consumed");
+		rows.close();
+	}
+
+	@Test
+	public void testSplitBatchesAccounted() throws Exception {
+		RowMemoryBudget budget = new RowMemoryBudget(64 * 1024 * 1024);
+		PostgreRows rows = new PostgreRows(JdbcStubs.createStatement(4, 5000, false, null));
+		RowMemoryBudget.Account account = budget.open("parallel import");
+		rows.setMemoryAccount(account, 100);
+
+		Spliterator<PostgreRow> spliterator = rows.spliterator();
+		Spliterator<PostgreRow> batch = spliterator.trySplit();
+		assertEquals(batch.estimateSize(), 1024);
+		long held = account.getBytes();
+		assertTrue(held > 1024 * RowMemoryBudget.estimateRowBytes(new String[4]), "Batch should be accounted");
+
+		final AtomicInteger count = new AtomicInteger();
+		Consumer<PostgreRow> counter = new Consumer<PostgreRow>() {
+			@Override
+			public void accept(PostgreRow row) {
+				count.incrementAndGet();
+			}
+		};
+		batch.forEachRemaining(counter);
+		assertTrue(account.getBytes() < held, "Processed batch should be released");
+		spliterator.forEachRemaining(counter);
+		assertEquals(count.get(), 5000);
+		assertEquals(account.getBytes(), 0);
+		rows.close();
+	}
+
+}
@@ -6,11 +6,15 @@ import static org.testng.Assert.assertTrue;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.StreamSupport;
 
 import org.testng.annotations.Test;
 
 import com.belladati.sdk.connector.ConnectorUtils;
 import com.belladati.sdk.connector.DataProviderApi;
+import com.belladati.sdk.connector.PropertyValueApi;
+import com.belladati.sdk.connector.PropertyValueApi.IntegerValue;
 import com.belladati.sdk.connector.example.generator.RandomDataProvider;
 import com.belladati.sdk.connector.example.sql.PostgreDataProvider;
 
@@ -61,4 +65,20 @@ public class RandomConnectorTest {
 		assertEquals(provider.getProperties().size(), 6);
 	}
 
+	@Test
+	public void testParallelStream() throws Throwable {
+		Map<String, PropertyValueApi<?>> properties = new RandomDataProvider(null).getDefaultProperties();
+		properties.put("numberOfRows", new IntegerValue(10000, true));
+		RandomRows rows = new RandomRows(properties, true, -1);
+
+		Spliterator<RandomRow> spliterator = rows.spliterator();
+		assertEquals(spliterator.estimateSize(), 10000L);
+		assertNotNull(spliterator.trySplit());
+		assertEquals(spliterator.estimateSize(), 5000L);
+
+		long distinctRows = StreamSupport.stream(rows.spliterator(), true).mapToInt(RandomRow::getIndex).distinct().count();
+		assertEquals(distinctRows, 10000L);
+		assertEquals(StreamSupport.stream(new RandomRows(properties, false, 10).spliterator(), true).count(), 11L);
+	}
+
 }
@@ -0,0 +1,189 @@
+package com.belladati.sdk.connector.example.generator;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.connector.PropertyValueApi;
+import com.belladati.sdk.connector.PropertyValueApi.IntegerValue;
+import com.belladati.sdk.connector.PropertyValueApi.StringValue;
+
+/**
+ * Tests to verify materialization and replay of {@link RandomDataset}s.
+ * @author Lubomir Elko
+ */
+public class RandomDatasetTest {
+
+	/** Dataset directories created by the current test **/
+	private final List<File> directories = new ArrayList<File>();
+
+	@AfterMethod(alwaysRun = true)
+	public void deleteDirectories() {
+		for (File directory : directories) {
+			File[] files = directory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					assertTrue(file.delete() || !file.exists(), "Cannot delete " + file);
+				}
+			}
+			assertTrue(directory.delete() || !directory.exists(), "Cannot delete " + directory);
+		}
+		directories.clear();
+	}
+
+	@Test
+	public void testReplayedRows() throws Throwable {
+		RandomDatasetCache cache = createCache(1L << 30, 1L << 30);
+		RandomDataProvider provider = createProvider(cache, 5000);
+
+		List<String> first = readRows(provider.provideImportData(null));
+		List<String> second = readRows(provider.provideImportData(null));
+		assertEquals(first.size(), 5000);
+		assertEquals(second, first, "Every import should replay the same rows");
+		assertEquals(cache.getBuildCount(), 1);
+		assertEquals(cache.getHitCount(), 1);
+
+		RandomRows rows = provider.provideImportData(null);
+		assertNotNull(rows.getDataset());
+		List<String> parallel = StreamSupport.stream(rows.spliterator(), true).map(RandomDatasetTest::toString)
+			.collect(Collectors.toList());
+		assertEquals(parallel, first, "Parallel replay should keep order of rows");
+	}
+
+	@Test
+	public void testRandomAccess() throws Throwable {
+		RandomDatasetCache cache = createCache(1L << 30, 1L << 30);
+		RandomDataset dataset = cache.getDataset(createProvider(cache, 3000).getProperties());
+		List<String> rows = new ArrayList<String>();
+		for (RandomDataset.Cursor cursor = dataset.openCursor(0); cursor.hasNext();) {
+			rows.add(Arrays.toString(cursor.next()));
+		}
+		assertEquals(rows.size(), 3000);
+
+		int index = RandomDataset.BLOCK_ROWS + 17;
+		RandomDataset.Cursor cursor = dataset.openCursor(index);
+		assertEquals(Arrays.toString(cursor.next()), rows.get(index));
+		assertFalse(dataset.openCursor(3000).hasNext());
+	}
+
+	@Test
+	public void testRebuiltOnChangedProperties() throws Throwable {
+		RandomDatasetCache cache = createCache(1L << 30, 1L << 30);
+		RandomDataProvider provider = createProvider(cache, 100);
+		File file = provider.provideImportData(null).getDataset().getFile();
+
+		provider.getProperties().put("attributePrefix", new StringValue("Changed", true));
+		RandomRows rows = provider.provideImportData(null);
+		assertFalse(rows.getDataset().getFile().equals(file), "Changed configuration should have its own dataset");
+		assertTrue(readRows(rows).get(0).contains("Changed"));
+		assertEquals(cache.getBuildCount(), 2);
+	}
+
+	@Test
+	public void testSizeLimits() throws Throwable {
+		RandomDatasetCache cache = createCache(64 * 1024, 1L << 30);
+		RandomDataProvider provider = createProvider(cache, 10000);
+		RandomRows rows = provider.provideImportData(null);
+		assertNull(rows.getDataset(), "Oversized dataset should not be cached");
+		assertEquals(readRows(rows).size(), 10000);
+		assertEquals(cache.getDirectory().listFiles().length, 0, "Partial dataset should be removed");
+
+		// estimated size is checked before generating rows
+		provider = createProvider(cache, Integer.MAX_VALUE);
+		long start = System.currentTimeMillis();
+		assertNull(cache.getDataset(provider.getProperties()), "Oversized dataset should not be cached");
+		assertTrue(System.currentTimeMillis() - start < 5000, "Oversized dataset should not be generated");
+		assertEquals(cache.getDirectory().listFiles().length, 0);
+		assertEquals(cache.getBuildCount(), 0);
+
+		cache = createCache(1L << 30, 1 << 30);
+		RandomDataset dataset = cache.getDataset(createProvider(cache, 3000).getProperties());
+		long estimate = RandomDatasetCache.estimateDatasetBytes(createProvider(cache, 3000).getProperties());
+		assertTrue(estimate <= dataset.getSizeBytes() && estimate > dataset.getSizeBytes() - 1024,
+			"Estimate " + estimate + " should be close below size " + dataset.getSizeBytes());
+
+		cache = createCache(1L << 30, 1);
+		provider = createProvider(cache, 100);
+		File first = provider.provideImportData(null).getDataset().getFile();
+		provider.getProperties().put("numberOfRows", new IntegerValue(200, true));
+		File second = provider.provideImportData(null).getDataset().getFile();
+		assertFalse(first.exists(), "Least recently used dataset should be removed");
+		assertTrue(second.exists());
+		assertEquals(cache.getDatasetCount(), 1, "Removed dataset should not stay in the cache");
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Throwable {
+		final RandomDatasetCache cache = createCache(1L << 30, 1L << 30);
+		final RandomDataProvider first = createProvider(cache, 20000);
+		final RandomDataProvider second = createProvider(cache, 100);
+		second.getProperties().put("attributePrefix", new StringValue("Other", true));
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<RandomDataset>> futures = new ArrayList<Future<RandomDataset>>();
+			for (int i = 0; i < 8; i++) {
+				final RandomDataProvider provider = i % 2 == 0 ? first : second;
+				futures.add(executor.submit(new Callable<RandomDataset>() {
+					@Override
+					public RandomDataset call() throws Exception {
+						return cache.getDataset(provider.getProperties());
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				assertTrue(futures.get(i).get() == futures.get(i % 2).get(), "Requests should share one dataset");
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(cache.getBuildCount(), 2, "Every configuration should be generated once");
+		assertEquals(cache.getHitCount(), 6);
+	}
+
+	private RandomDatasetCache createCache(long maxDatasetBytes, long maxCacheBytes) throws Exception {
+		File directory = Files.createTempDirectory("datasets").toFile();
+		directories.add(directory);
+		return new RandomDatasetCache(directory, maxDatasetBytes, maxCacheBytes);
+	}
+
+	private RandomDataProvider createProvider(RandomDatasetCache cache, int numberOfRows) {
+		Map<String, PropertyValueApi<?>> properties = new RandomDataProvider(null).getDefaultProperties();
+		properties.put("numberOfRows", new IntegerValue(numberOfRows, true));
+		RandomDataProvider provider = new RandomDataProvider(properties);
+		provider.setMemoryBudget(null);
+		provider.setDatasetCache(cache);
+		return provider;
+	}
+
+	private static List<String> readRows(RandomRows rows) throws Exception {
+		List<String> values = new ArrayList<String>();
+		for (RandomRow row : rows) {
+			values.add(toString(row));
+		}
+		rows.close();
+		return values;
+	}
+
+	private static String toString(RandomRow row) {
+		return row.getIndex() + ":" + Arrays.toString(row.getValues());
+	}
+
+}
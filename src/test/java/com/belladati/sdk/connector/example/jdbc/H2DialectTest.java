@@ -0,0 +1,292 @@
+package com.belladati.sdk.connector.example.jdbc;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.connector.PropertyValueApi;
+import com.belladati.sdk.connector.PropertyValueApi.StringValue;
+import com.belladati.sdk.connector.RowApi;
+import com.belladati.sdk.connector.RowsApi;
+import com.belladati.sdk.connector.example.sql.PostgreChangeDetector;
+import com.belladati.sdk.connector.example.sql.PostgreDataProvider;
+import com.belladati.sdk.connector.example.sql.PostgreRows;
+
+/**
+ * Tests to verify behaviour of the data provider with embedded H2 database, no database server is needed.
+ * @author Lubomir Elko
+ */
+public class H2DialectTest {
+
+	/** Name of the in-memory database, kept open until the last connection is closed **/
+	private static final String DATABASE = "mem:h2dialect;DB_CLOSE_DELAY=-1";
+
+	/** Number of rows in the seeded table **/
+	private static final int ROWS = 5000;
+
+	/** Connection keeping the in-memory database alive **/
+	private Connection keepAlive;
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:" + DATABASE);
+		keepAlive = dataSource.getConnection();
+		Statement statement = keepAlive.createStatement();
+		try {
+			statement.execute("CREATE TABLE items (id INT PRIMARY KEY, name VARCHAR(50))");
+			statement.execute("INSERT INTO items SELECT x, 'Item ' || x FROM SYSTEM_RANGE(1, " + ROWS + ")");
+		} finally {
+			statement.close();
+		}
+	}
+
+	@AfterClass(alwaysRun = true)
+	public void tearDown() throws Exception {
+		if (keepAlive != null) {
+			keepAlive.close();
+		}
+	}
+
+	@Test
+	public void testValidate() throws Throwable {
+		assertEquals(createProvider("SELECT id, name FROM items;").validate().size(), 0);
+		assertEquals(createProvider("SELECT id, name FROM missing;").validate().size(), 1);
+	}
+
+	@Test
+	public void testPreviewData() throws Throwable {
+		PostgreDataProvider provider = createProvider("SELECT id, name FROM items ORDER BY id;");
+		assertEquals(consume(provider.providePreviewData(10), null), 10);
+	}
+
+	@Test
+	public void testImportData() throws Throwable {
+		PostgreDataProvider provider = createProvider("SELECT id, name FROM items WHERE id > 1000;");
+		assertEquals(consume(provider.provideImportData(null), null), ROWS - 1000);
+	}
+
+	@Test
+	public void testPartitionedImportData() throws Throwable {
+		PostgreDataProvider provider = createProvider("SELECT id, name FROM items;");
+		List<PostgreRows> partitions = provider.providePartitionedImportData(4);
+		assertEquals(partitions.size(), 4);
+
+		Set<String> ids = new HashSet<String>();
+		int count = 0;
+		for (PostgreRows rows : partitions) {
+			count += consume(rows, ids);
+		}
+		assertEquals(count, ROWS);
+		assertEquals(ids.size(), ROWS, "Partitions should be disjoint");
+	}
+
+	@Test
+	public void testPartitionsShareSnapshot() throws Throwable {
+		final List<String> events = new ArrayList<String>();
+		PostgreDataProvider provider = createProvider("SELECT id, name FROM items;");
+		// H2 has no exported snapshots, the test dialect records the calls
+		provider.setDialect(new H2Dialect() {
+			@Override
+			public String exportSnapshot(Connection connection) {
+				events.add("export");
+				return "00000003-0000001B-1";
+			}
+
+			@Override
+			public void importSnapshot(Connection connection, String snapshot) throws SQLException {
+				events.add("import " + snapshot);
+			}
+		});
+		List<PostgreRows> partitions = provider.providePartitionedImportData(4);
+		assertEquals(partitions.size(), 4);
+		assertEquals(events, Arrays.asList("export", "import 00000003-0000001B-1", "import 00000003-0000001B-1",
+			"import 00000003-0000001B-1"), "Partitions after the first one should import its snapshot");
+		int count = 0;
+		for (PostgreRows rows : partitions) {
+			count += consume(rows, null);
+		}
+		assertEquals(count, ROWS);
+
+		// partitions must not read different snapshots silently
+		JdbcImportScheduler scheduler = new JdbcImportScheduler(4, 4);
+		provider.setImportScheduler(scheduler);
+		provider.setDialect(new H2Dialect() {
+			@Override
+			public String exportSnapshot(Connection connection) {
+				return "00000003-0000001B-1";
+			}
+
+			@Override
+			public void importSnapshot(Connection connection, String snapshot) throws SQLException {
+				throw new SQLException("invalid snapshot identifier");
+			}
+		});
+		try {
+			provider.providePartitionedImportData(4);
+			throw new AssertionError("Import should fail when the snapshot cannot be imported");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(scheduler.getRunning(), 0, "Permit of failed import should be released");
+	}
+
+	@Test
+	public void testOrderedQueryIsNotPartitioned() throws Throwable {
+		PostgreDataProvider provider = createProvider("SELECT id, name FROM items ORDER BY id;");
+		List<PostgreRows> partitions = provider.providePartitionedImportData(4);
+		assertEquals(partitions.size(), 1);
+		assertEquals(consume(partitions.get(0), null), ROWS);
+	}
+
+	@Test
+	public void testFailedImportReleasesResources() throws Throwable {
+		PostgreDataProvider provider = createProvider("SELECT id, name FROM missing;");
+		JdbcImportScheduler scheduler = new JdbcImportScheduler(1, 1);
+		scheduler.setAcquireTimeoutMillis(1000);
+		provider.setImportScheduler(scheduler);
+		for (int i = 0; i < 2; i++) {
+			try {
+				provider.provideImportData(null);
+				throw new AssertionError("Import of missing table should fail");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			try {
+				provider.providePartitionedImportData(4);
+				throw new AssertionError("Import of missing table should fail");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+		assertEquals(scheduler.getRunning(), 0, "Permit of failed import should be released");
+		assertEquals(provider.getConnectionPool().getIdleCount(), 1, "Connection of failed import should be returned");
+		assertEquals(provider.getConnectionPool().getCreatedCount(), 1);
+	}
+
+	@Test
+	public void testWarmUp() throws Throwable {
+		PostgreDataProvider provider = createProvider("SELECT id, name FROM items ORDER BY id;");
+		provider.setWarmUpEnabled(true);
+		Future<?> warmUp = provider.getWarmUp();
+		warmUp.get();
+		JdbcConnectionPool pool = provider.getConnectionPool();
+		assertEquals(pool.getCreatedCount(), 2, "Preview and validation profiles should have their own connections");
+		assertEquals(pool.getIdleCount(), 2, "Warmed up connections should be returned to the pool");
+
+		long firstPrepared = pool.getFirstPreparedCount();
+		assertEquals(provider.validate().size(), 0);
+		assertEquals(pool.getCreatedCount(), 2, "Warmed up connection should be reused");
+		assertEquals(pool.getFirstPreparedCount(), firstPrepared, "Described statement should be re-prepared");
+		assertEquals(consume(provider.providePreviewData(10), null), 10);
+		assertEquals(pool.getFirstPreparedCount(), firstPrepared, "Preview should re-prepare the described statement");
+		assertSame(provider.getWarmUp(), warmUp, "Unchanged configuration should not be warmed up again");
+
+		PostgreDataProvider failing = createProvider("SELECT id, name FROM missing;");
+		failing.setWarmUpEnabled(true);
+		failing.getWarmUp().get();
+		assertEquals(failing.validate().size(), 1, "Failed warm-up should not hide errors");
+	}
+
+	@Test
+	public void testUnchangedDataSkipped() throws Throwable {
+		File directory = Files.createTempDirectory("fingerprints").toFile();
+		String previousDirectory = System.getProperty(PostgreChangeDetector.STORE_DIRECTORY_PROPERTY);
+		System.setProperty(PostgreChangeDetector.STORE_DIRECTORY_PROPERTY, directory.getPath());
+		Statement statement = keepAlive.createStatement();
+		try {
+			statement.execute("CREATE TABLE tracked (id INT PRIMARY KEY, name VARCHAR(50))");
+			statement.execute("INSERT INTO tracked SELECT x, 'Tracked ' || x FROM SYSTEM_RANGE(1, 100)");
+			PostgreDataProvider provider = createProvider("SELECT id, name FROM tracked");
+			provider.getProperties().put("changeDetection", new StringValue("HASH", true));
+			// H2 has no fingerprint of whole rows, the test dialect hashes the columns of the known query
+			provider.setDialect(new H2Dialect() {
+				@Override
+				public String createFingerprintQuery(String sql) {
+					return "SELECT COUNT(*) || ':' || COALESCE(SUM(id), 0) || ':' || COALESCE(SUM(LENGTH(name)), 0)"
+						+ " FROM (" + sql + ") AS t";
+				}
+			});
+
+			PostgreRows first = provider.provideImportData(null);
+			assertFalse(first.isUnchanged());
+			assertEquals(consume(first, null), 100);
+
+			PostgreRows second = provider.provideImportData(null);
+			assertTrue(second.isUnchanged(), "Unchanged data should not be transferred again");
+			assertFalse(second.iterator().hasNext());
+			assertEquals(Arrays.asList(second.getColumns()), Arrays.asList("ID", "NAME"));
+			second.close();
+			assertEquals(provider.getConnectionPool().getIdleCount(), 1, "Connection of skipped import should be returned");
+
+			statement.execute("UPDATE tracked SET name = 'Changed' WHERE id = 1");
+			PostgreRows third = provider.provideImportData(null);
+			assertFalse(third.isUnchanged(), "Committed change should be imported");
+			assertEquals(consume(third, null), 100);
+			assertTrue(provider.provideImportData(null).isUnchanged());
+		} finally {
+			statement.execute("DROP TABLE IF EXISTS tracked");
+			statement.close();
+			if (previousDirectory != null) {
+				System.setProperty(PostgreChangeDetector.STORE_DIRECTORY_PROPERTY, previousDirectory);
+			} else {
+				System.clearProperty(PostgreChangeDetector.STORE_DIRECTORY_PROPERTY);
+			}
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private PostgreDataProvider createProvider(String sqlQuery) {
+		Map<String, PropertyValueApi<?>> properties = new PostgreDataProvider(null).getDefaultProperties();
+		properties.put("database", new StringValue(DATABASE, true));
+		properties.put("sqlQuery", new StringValue(sqlQuery, true));
+		PostgreDataProvider provider = new PostgreDataProvider(properties);
+		provider.setDialect(new H2Dialect());
+		return provider;
+	}
+
+	/**
+	 * Reads all rows and closes them.
+	 * @param rows Provided rows
+	 * @param ids Set collecting values of the first column or {@code null}
+	 * @return Number of rows
+	 */
+	private int consume(RowsApi<?> rows, Set<String> ids) throws Exception {
+		int count = 0;
+		try {
+			for (RowApi row : rows) {
+				if (ids != null) {
+					ids.add(row.getValue(0));
+				}
+				count++;
+			}
+		} finally {
+			rows.close();
+		}
+		assertTrue(count > 0, "No rows provided");
+		return count;
+	}
+
+}
@@ -0,0 +1,210 @@
+package com.belladati.sdk.connector.example.jdbc;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests to verify reuse of connections and statements by {@link JdbcConnectionPool}.
+ * @author Lubomir Elko
+ */
+public class JdbcConnectionPoolTest {
+
+	@Test
+	public void testConnectionReused() throws Throwable {
+		FakeDataSource dataSource = new FakeDataSource();
+		JdbcConnectionPool pool = new JdbcConnectionPool();
+		final AtomicInteger initialized = new AtomicInteger();
+		Consumer<Connection> initializer = new Consumer<Connection>() {
+			@Override
+			public void accept(Connection connection) {
+				initialized.incrementAndGet();
+			}
+		};
+
+		Connection first = pool.getConnection(dataSource, "preview", initializer);
+		first.setAutoCommit(false);
+		first.close();
+		assertTrue(first.isClosed());
+		assertEquals(dataSource.connections.get(0).rollbacks, 1, "Open transaction should be rolled back");
+
+		Connection second = pool.getConnection(dataSource, "preview", initializer);
+		assertEquals(dataSource.connections.size(), 1, "Idle connection should be reused");
+		assertEquals(initialized.get(), 1, "Session settings should be applied to new connections only");
+
+		Connection other = pool.getConnection(dataSource, "import", initializer);
+		assertEquals(dataSource.connections.size(), 2, "Connection with other session settings should be created");
+		second.close();
+		other.close();
+		assertEquals(pool.getIdleCount(), 2);
+		assertEquals(pool.getCreatedCount(), 2);
+		assertEquals(pool.getReusedCount(), 1);
+	}
+
+	@Test
+	public void testStatementStatistics() throws Throwable {
+		FakeDataSource dataSource = new FakeDataSource();
+		JdbcConnectionPool pool = new JdbcConnectionPool();
+		for (int i = 0; i < 3; i++) {
+			Connection connection = pool.getConnection(dataSource, "", null);
+			PreparedStatement statement = connection.prepareStatement("SELECT 1");
+			assertSame(statement.getConnection(), connection, "Statement should return pooled connection");
+			connection.close();
+		}
+		assertEquals(pool.getFirstPreparedCount(), 1);
+		assertEquals(pool.getRepreparedCount(), 2);
+		assertEquals(dataSource.connections.get(0).openStatements, 0, "Statements should be closed with connection");
+	}
+
+	@Test
+	public void testLimits() throws Throwable {
+		FakeDataSource dataSource = new FakeDataSource();
+		JdbcConnectionPool pool = new JdbcConnectionPool();
+		pool.setMaxIdleConnections(1);
+		Connection first = pool.getConnection(dataSource, "", null);
+		Connection second = pool.getConnection(dataSource, "", null);
+		first.close();
+		second.close();
+		assertEquals(pool.getIdleCount(), 1);
+		assertTrue(dataSource.connections.get(1).closed, "Connection over the limit should be closed");
+
+		Connection borrowed = pool.getConnection(dataSource, "", null);
+		pool.clear();
+		assertTrue(dataSource.connections.get(1).closed);
+		borrowed.close();
+		assertTrue(dataSource.connections.get(0).closed, "Connection of cleared pool should be closed when returned");
+		assertEquals(pool.getIdleCount(), 0);
+
+		pool.setMaxIdleConnections(0);
+		pool.getConnection(dataSource, "", null).close();
+		assertTrue(dataSource.connections.get(2).closed, "Connections should not be pooled");
+	}
+
+	@Test
+	public void testIdleTimeout() throws Throwable {
+		FakeDataSource dataSource = new FakeDataSource();
+		JdbcConnectionPool pool = new JdbcConnectionPool();
+		pool.setIdleTimeoutMillis(-1);
+		pool.getConnection(dataSource, "", null).close();
+		pool.getConnection(dataSource, "", null).close();
+		assertEquals(dataSource.connections.size(), 2);
+		assertTrue(dataSource.connections.get(0).closed, "Expired connection should be closed");
+		assertFalse(dataSource.connections.get(1).closed);
+	}
+
+	/**
+	 * Data source creating connections that only record calls.
+	 * @author Lubomir Elko
+	 */
+	private static class FakeDataSource implements DataSource {
+
+		/** Created connections **/
+		private final List<FakeConnection> connections = new ArrayList<FakeConnection>();
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			FakeConnection connection = new FakeConnection();
+			connections.add(connection);
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, connection);
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			return getConnection();
+		}
+
+		@Override
+		public PrintWriter getLogWriter() {
+			return null;
+		}
+
+		@Override
+		public void setLogWriter(PrintWriter out) {}
+
+		@Override
+		public void setLoginTimeout(int seconds) {}
+
+		@Override
+		public int getLoginTimeout() {
+			return 0;
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+
+		@Override
+		public <T> T unwrap(Class<T> iface) throws SQLException {
+			throw new SQLException();
+		}
+
+		@Override
+		public boolean isWrapperFor(Class<?> iface) {
+			return false;
+		}
+
+	}
+
+	/**
+	 * Physical connection recording its state.
+	 * @author Lubomir Elko
+	 */
+	private static class FakeConnection implements InvocationHandler {
+
+		private boolean autoCommit = true, closed;
+
+		private int rollbacks, openStatements;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("setAutoCommit".equals(name)) {
+				autoCommit = (Boolean) args[0];
+			} else if ("getAutoCommit".equals(name)) {
+				return autoCommit;
+			} else if ("rollback".equals(name)) {
+				rollbacks++;
+			} else if ("close".equals(name)) {
+				closed = true;
+			} else if ("isClosed".equals(name) || "isValid".equals(name)) {
+				return "isClosed".equals(name) ? closed : !closed;
+			} else if ("prepareStatement".equals(name)) {
+				openStatements++;
+				return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object statement, Method method, Object[] args) throws Throwable {
+							if ("close".equals(method.getName())) {
+								openStatements--;
+							}
+							return null;
+						}
+					});
+			}
+			return null;
+		}
+
+	}
+
+}
@@ -0,0 +1,131 @@
+package com.belladati.sdk.connector.example.jdbc;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.connector.example.jdbc.JdbcImportScheduler.Permit;
+
+/**
+ * Tests to verify limits and ordering of {@link JdbcImportScheduler}.
+ * @author Lubomir Elko
+ */
+public class JdbcImportSchedulerTest {
+
+	@Test
+	public void testGlobalLimit() throws Throwable {
+		JdbcImportScheduler scheduler = new JdbcImportScheduler(2, 2);
+		Permit first = scheduler.acquire("db1");
+		scheduler.acquire("db2");
+
+		CompletableFuture<Permit> waiting = scheduler.request("db3");
+		assertFalse(waiting.isDone(), "Third import should wait for global limit");
+		assertEquals(scheduler.getQueueDepth(), 1);
+		assertEquals(scheduler.getRunning(), 2);
+
+		first.release();
+		first.release();
+		assertTrue(waiting.isDone());
+		assertEquals(scheduler.getQueueDepth(), 0);
+		assertEquals(scheduler.getRunning(), 2);
+	}
+
+	@Test
+	public void testHostLimit() throws Throwable {
+		JdbcImportScheduler scheduler = new JdbcImportScheduler(3, 1);
+		Permit first = scheduler.acquire("db1");
+
+		CompletableFuture<Permit> sameHost = scheduler.request("db1");
+		CompletableFuture<Permit> otherHost = scheduler.request("db2");
+		assertFalse(sameHost.isDone(), "Second import from the same host should wait");
+		assertTrue(otherHost.isDone(), "Import from other host should not wait behind the busy host");
+		assertEquals(scheduler.getQueueDepth("db1"), 1);
+		assertEquals(scheduler.getRunning("db1"), 1);
+
+		first.close();
+		assertTrue(sameHost.isDone());
+		assertEquals(scheduler.getAdmittedCount(), 3);
+	}
+
+	@Test
+	public void testQueueOrder() throws Throwable {
+		JdbcImportScheduler scheduler = new JdbcImportScheduler(1, 1);
+		Permit first = scheduler.acquire("db1");
+		CompletableFuture<Permit> second = scheduler.request("db1");
+		CompletableFuture<Permit> third = scheduler.request("db2");
+
+		first.release();
+		assertTrue(second.isDone(), "Imports should be admitted in order of arrival");
+		assertFalse(third.isDone());
+
+		second.get().release();
+		assertTrue(third.isDone());
+	}
+
+	@Test
+	public void testCancelledRequest() throws Throwable {
+		JdbcImportScheduler scheduler = new JdbcImportScheduler(1, 1);
+		Permit first = scheduler.acquire("db1");
+		CompletableFuture<Permit> cancelled = scheduler.request("db1");
+		CompletableFuture<Permit> waiting = scheduler.request("db1");
+
+		cancelled.cancel(false);
+		assertEquals(scheduler.getQueueDepth(), 1);
+
+		first.release();
+		assertTrue(waiting.isDone(), "Cancelled request should be skipped");
+		assertEquals(scheduler.getRunning(), 1);
+	}
+
+	@Test
+	public void testAcquireTimeout() throws Throwable {
+		JdbcImportScheduler scheduler = new JdbcImportScheduler(2, 1);
+		scheduler.acquire("db1");
+		scheduler.setAcquireTimeoutMillis(50);
+		try {
+			scheduler.acquire("db1");
+			throw new AssertionError("Import over the host limit should not wait forever");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("db1"), e.getMessage());
+		}
+		assertEquals(scheduler.getQueueDepth(), 0, "Timed out request should leave the queue");
+		assertEquals(scheduler.getRunning(), 1);
+	}
+
+	@Test
+	public void testSubmittedTasks() throws Throwable {
+		JdbcImportScheduler scheduler = new JdbcImportScheduler(4, 2);
+		final AtomicInteger concurrent = new AtomicInteger();
+		final AtomicInteger maxConcurrent = new AtomicInteger();
+		List<CompletableFuture<Integer>> results = new ArrayList<CompletableFuture<Integer>>();
+		for (int i = 0; i < 50; i++) {
+			final int index = i;
+			results.add(scheduler.submit("db1", new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int current = concurrent.incrementAndGet();
+					maxConcurrent.accumulateAndGet(current, Math::max);
+					Thread.sleep(1);
+					concurrent.decrementAndGet();
+					return index;
+				}
+			}));
+		}
+		for (int i = 0; i < results.size(); i++) {
+			assertEquals(results.get(i).get(10, TimeUnit.SECONDS).intValue(), i);
+		}
+		assertTrue(maxConcurrent.get() <= 2, "Per-host limit exceeded: " + maxConcurrent.get());
+		assertEquals(scheduler.getAdmittedCount(), 50);
+		assertTrue(scheduler.getMaxWaitMillis() >= scheduler.getAverageWaitMillis());
+	}
+
+}
@@ -0,0 +1,140 @@
+package com.belladati.sdk.connector.example.sql;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.connector.example.JdbcStubs;
+
+/**
+ * Tests to verify computation and storage of fingerprints by {@link PostgreChangeDetector}.
+ * @author Lubomir Elko
+ */
+public class PostgreChangeDetectorTest {
+
+	/** Directory with stored fingerprints of the current test **/
+	private File directory;
+
+	/** Value of the store directory property before the test **/
+	private String previousDirectory;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("fingerprints").toFile();
+		previousDirectory = System.getProperty(PostgreChangeDetector.STORE_DIRECTORY_PROPERTY);
+		System.setProperty(PostgreChangeDetector.STORE_DIRECTORY_PROPERTY, directory.getPath());
+	}
+
+	@AfterMethod(alwaysRun = true)
+	public void tearDown() {
+		if (previousDirectory != null) {
+			System.setProperty(PostgreChangeDetector.STORE_DIRECTORY_PROPERTY, previousDirectory);
+		} else {
+			System.clearProperty(PostgreChangeDetector.STORE_DIRECTORY_PROPERTY);
+		}
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testFingerprintQuery() throws Throwable {
+		String query = new PostgreDialect().createFingerprintQuery("SELECT a, b FROM t;");
+		assertEquals(query, "SELECT count(*) || ':' || coalesce(sum(('x' || substr(md5(fingerprint_row::text), 1, 16))"
+			+ "::bit(64)::bigint), 0) FROM (\nSELECT a, b FROM t\n) AS fingerprint_row");
+		assertNull(new PostgreDialect().createFingerprintQuery("SELECT 1; SELECT 2"));
+	}
+
+	@Test
+	public void testComputeFingerprint() throws Throwable {
+		List<String> executed = new ArrayList<String>();
+		PostgreChangeDetector detector = new PostgreChangeDetector(PostgreChangeDetector.Mode.HASH, "db", "SELECT 1",
+			"SELECT 'fingerprint'");
+		assertEquals(detector.computeFingerprint(createConnection("10:42", executed)), "10:42");
+		assertEquals(executed.toString(), "[SELECT 'fingerprint']");
+
+		PostgreChangeDetector disabled = new PostgreChangeDetector(PostgreChangeDetector.Mode.NONE, "db", "SELECT 1",
+			"SELECT 'fingerprint'");
+		assertNull(disabled.computeFingerprint(createConnection("10:42", executed)));
+		PostgreChangeDetector unsupported = new PostgreChangeDetector(PostgreChangeDetector.Mode.HASH, "db",
+			"SELECT 1", null);
+		assertNull(unsupported.computeFingerprint(createConnection("10:42", executed)));
+		assertEquals(executed.size(), 1, "Disabled detection should not query the server");
+	}
+
+	@Test
+	public void testStoredFingerprint() throws Throwable {
+		PostgreChangeDetector detector = new PostgreChangeDetector(PostgreChangeDetector.Mode.HASH, "db", "SELECT 1",
+			"SELECT 'fingerprint'");
+		PostgreChangeDetector other = new PostgreChangeDetector(PostgreChangeDetector.Mode.HASH, "db", "SELECT 2",
+			"SELECT 'fingerprint'");
+		assertFalse(detector.isUnchanged("10:42"), "Nothing has been imported yet");
+
+		detector.storeFingerprint("10:42");
+		assertTrue(new File(directory, "postgre-fingerprints.properties").isFile());
+		assertTrue(detector.isUnchanged("10:42"));
+		assertFalse(detector.isUnchanged("11:43"), "Changed data should be imported");
+		assertFalse(detector.isUnchanged(null), "Missing fingerprint should never skip the import");
+		assertFalse(other.isUnchanged("10:42"), "Other query should have its own fingerprint");
+
+		PostgreChangeDetector reloaded = new PostgreChangeDetector(PostgreChangeDetector.Mode.HASH, "db", "SELECT 1",
+			"SELECT 'fingerprint'");
+		assertTrue(reloaded.isUnchanged("10:42"), "Fingerprint should be read from the store");
+		reloaded.clearFingerprint();
+		assertFalse(detector.isUnchanged("10:42"));
+	}
+
+	/**
+	 * Creates connection returning the given value from every query and recording executed SQL.
+	 */
+	private Connection createConnection(final String value, final List<String> executed) {
+		final ResultSet resultSet = JdbcStubs.stub(ResultSet.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("next".equals(method.getName())) {
+					return true;
+				}
+				return "getString".equals(method.getName()) ? value : JdbcStubs.defaultValue(method);
+			}
+		});
+		return JdbcStubs.stub(Connection.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (!"prepareStatement".equals(method.getName())) {
+					return JdbcStubs.defaultValue(method);
+				}
+				final String sql = (String) args[0];
+				return JdbcStubs.stub(PreparedStatement.class, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("executeQuery".equals(method.getName())) {
+							executed.add(sql);
+							return resultSet;
+						}
+						return JdbcStubs.defaultValue(method);
+					}
+				});
+			}
+		});
+	}
+
+}
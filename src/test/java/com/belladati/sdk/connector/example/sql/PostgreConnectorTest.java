@@ -2,8 +2,16 @@ package com.belladati.sdk.connector.example.sql;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -11,7 +19,9 @@ import org.testng.annotations.Test;
 
 import com.belladati.sdk.connector.ConnectorUtils;
 import com.belladati.sdk.connector.DataProviderApi;
+import com.belladati.sdk.connector.example.JdbcStubs;
 import com.belladati.sdk.connector.example.generator.RandomDataProvider;
+import com.belladati.sdk.connector.example.jdbc.JdbcQueryRewriter;
 import com.belladati.sdk.connector.example.sql.PostgreDataProvider;
 
 /**
@@ -41,7 +51,7 @@ public class PostgreConnectorTest {
 
 		PostgreDataProvider provider = (PostgreDataProvider) result;
 		assertNotNull(provider.getProperties());
-		assertEquals(provider.getProperties().size(), 6);
+		assertEquals(provider.getProperties().size(), 8);
 	}
 
 	@Test
@@ -56,9 +66,112 @@ public class PostgreConnectorTest {
 		PostgreDataProvider provider = new PostgreDataProvider(null);
 
 		assertNotNull(provider.getDefaultProperties());
-		assertEquals(provider.getDefaultProperties().size(), 6);
+		assertEquals(provider.getDefaultProperties().size(), 8);
 		assertNotNull(provider.getProperties());
-		assertEquals(provider.getProperties().size(), 6);
+		assertEquals(provider.getProperties().size(), 8);
+	}
+
+	@Test
+	public void testPreviewQueryWithLimit() throws Throwable {
+		assertEquals(JdbcQueryRewriter.wrapWithLimit("SELECT a, b FROM t ORDER BY a;\n"),
+			"SELECT * FROM (\nSELECT a, b FROM t ORDER BY a\n) AS preview LIMIT ?");
+		assertEquals(JdbcQueryRewriter.wrapWithLimit("select ';' from t -- comment"),
+			"SELECT * FROM (\nselect ';' from t\n) AS preview LIMIT ?");
+		assertNotNull(JdbcQueryRewriter.wrapWithLimit("WITH x AS (SELECT 1) SELECT * FROM x"));
+	}
+
+	@Test
+	public void testPreviewQueryFallback() throws Throwable {
+		assertNull(JdbcQueryRewriter.wrapWithLimit("SELECT 1; SELECT 2"));
+		assertNull(JdbcQueryRewriter.wrapWithLimit("SHOW server_version"));
+		assertNull(JdbcQueryRewriter.wrapWithLimit("SELECT * INTO copy FROM t"));
+		assertNull(JdbcQueryRewriter.wrapWithLimit("WITH d AS (DELETE FROM t RETURNING *) SELECT * FROM d"));
+	}
+
+	@Test
+	public void testSampledPreviewQuery() throws Throwable {
+		assertEquals(JdbcQueryRewriter.getSingleTable("SELECT a FROM public.\"My Table\" x WHERE a > 1;"),
+			"public.\"My Table\"");
+		assertEquals(PostgreDialect.wrapWithSample("SELECT * FROM t WHERE a = 'b'", 0.5),
+			"SELECT * FROM (\nSELECT * FROM t TABLESAMPLE SYSTEM (0.5000) WHERE a = 'b'\n) AS preview LIMIT ?");
+		assertNull(JdbcQueryRewriter.getSingleTable("SELECT * FROM a JOIN b ON a.id = b.id"));
+		assertNull(JdbcQueryRewriter.getSingleTable("SELECT * FROM a, b"));
+		assertNull(JdbcQueryRewriter.getSingleTable("SELECT * FROM t ORDER BY a"));
+		assertNull(JdbcQueryRewriter.getSingleTable("SELECT * FROM t WHERE a IN (SELECT b FROM u)"));
+	}
+
+	@Test
+	public void testCountQuery() throws Throwable {
+		assertEquals(JdbcQueryRewriter.wrapWithCount("SELECT a FROM t -- comment;\n;"),
+			"SELECT count(*) FROM (\nSELECT a FROM t\n) AS t");
+		assertNull(JdbcQueryRewriter.wrapWithCount("DELETE FROM t"));
+	}
+
+	@Test
+	public void testPartitionQuery() throws Throwable {
+		assertEquals(JdbcQueryRewriter.addCondition("SELECT a FROM t;", "ctid < '(10,0)'::tid"),
+			"SELECT a FROM t\nWHERE ctid < '(10,0)'::tid");
+		assertEquals(JdbcQueryRewriter.addCondition("SELECT a FROM t x WHERE a = 1 OR b = 2", "id < 5"),
+			"SELECT a FROM t x WHERE (id < 5) AND ( a = 1 OR b = 2\n)");
+		assertNull(JdbcQueryRewriter.addCondition("SELECT a FROM t WHERE a = 1 ORDER BY a", "id < 5"));
+		assertNull(JdbcQueryRewriter.addCondition("SELECT * FROM a JOIN b ON a.id = b.id", "id < 5"));
+
+		List<String> ranges = PostgreDialect.createBlockRanges(1000, 3);
+		assertEquals(ranges.size(), 3);
+		assertEquals(ranges.get(0), "ctid < '(334,0)'::tid");
+		assertEquals(ranges.get(1), "ctid >= '(334,0)'::tid AND ctid < '(668,0)'::tid");
+		assertEquals(ranges.get(2), "ctid >= '(668,0)'::tid");
+		assertTrue(PostgreDialect.createBlockRanges(100, 3).isEmpty(), "Small table should not be split");
+	}
+
+	@Test
+	public void testRowCountEstimate() throws Throwable {
+		assertEquals(PostgreDialect.parsePlanRows("[{\"Plan\": {\"Node Type\": \"Seq Scan\", \"Plan Rows\": 1234,"
+			+ " \"Plans\": [{\"Plan Rows\": 5}]}}]"), 1234);
+		assertEquals(PostgreDialect.parsePlanRows(null), -1);
+	}
+
+	@Test
+	public void testSnapshotImport() throws Throwable {
+		final List<String> sql = new ArrayList<String>();
+		Connection connection = JdbcStubs.stub(Connection.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (!"createStatement".equals(method.getName())) {
+					return JdbcStubs.defaultValue(method);
+				}
+				return JdbcStubs.stub(Statement.class, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("execute".equals(method.getName())) {
+							sql.add((String) args[0]);
+						}
+						return JdbcStubs.defaultValue(method);
+					}
+				});
+			}
+		});
+		new PostgreDialect().importSnapshot(connection, "00000003-0000001B-1");
+		assertEquals(sql, Arrays.asList("SET TRANSACTION NOT DEFERRABLE",
+			"SET TRANSACTION SNAPSHOT '00000003-0000001B-1'"), "Deferrable transactions cannot import snapshots");
+
+		try {
+			new PostgreDialect().importSnapshot(connection, "1'; DROP TABLE t; --");
+			throw new AssertionError("Snapshot ID is embedded into SQL and must be checked");
+		} catch (SQLException e) {
+			// expected
+		}
+		assertEquals(sql.size(), 2);
+	}
+
+	@Test
+	public void testChangeDetectionMode() throws Throwable {
+		assertEquals(PostgreChangeDetector.Mode.parse("hash"), PostgreChangeDetector.Mode.HASH);
+		assertEquals(PostgreChangeDetector.Mode.parse(" Hash "), PostgreChangeDetector.Mode.HASH);
+		assertEquals(PostgreChangeDetector.Mode.parse("stats"), PostgreChangeDetector.Mode.NONE,
+			"Statistics are not transactional and must not be used to skip imports");
+		assertEquals(PostgreChangeDetector.Mode.parse(null), PostgreChangeDetector.Mode.NONE);
+		assertEquals(PostgreChangeDetector.Mode.parse("unknown"), PostgreChangeDetector.Mode.NONE);
 	}
 
 }
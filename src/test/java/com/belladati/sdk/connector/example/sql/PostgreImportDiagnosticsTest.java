@@ -0,0 +1,106 @@
+package com.belladati.sdk.connector.example.sql;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.connector.example.JdbcStubs;
+
+/**
+ * Tests to verify when {@link PostgreImportDiagnostics} captures slow imports. A capture is observed as a request for
+ * the separate connection, which fails, so that no database is needed.
+ * @author Lubomir Elko
+ */
+public class PostgreImportDiagnosticsTest {
+
+	@Test
+	public void testThreshold() {
+		AtomicInteger captures = new AtomicInteger();
+		PostgreImportDiagnostics.Monitor monitor = createDiagnostics().createMonitor("SELECT 1", null,
+			createConnections(captures));
+
+		// 500 rows in the window of 1 s are above the threshold of 100 rows/s
+		monitor.rowRead(500);
+		monitor.run();
+		assertEquals(captures.get(), 0, "Fast import should not be captured");
+
+		// 50 rows in the next window are below the threshold
+		monitor.rowRead(550);
+		monitor.run();
+		assertEquals(captures.get(), 1, "Slow import should be captured");
+	}
+
+	@Test
+	public void testOneReportPerImport() {
+		AtomicInteger captures = new AtomicInteger();
+		PostgreImportDiagnostics diagnostics = createDiagnostics();
+		PostgreImportDiagnostics.Monitor monitor = diagnostics.createMonitor("SELECT 1", null,
+			createConnections(captures));
+		monitor.start();
+		assertTrue(monitor.isRunning());
+		monitor.run();
+		monitor.run();
+		assertEquals(captures.get(), 1, "Import should be reported only once");
+		assertFalse(monitor.isRunning(), "Reported import should not be checked anymore");
+
+		// other queries are reported, the same query is not reported again within the capture interval
+		diagnostics.createMonitor("SELECT 2", null, createConnections(captures)).run();
+		assertEquals(captures.get(), 2, "Report of one query should not suppress other queries");
+		diagnostics.createMonitor("SELECT 1", null, createConnections(captures)).run();
+		assertEquals(captures.get(), 2, "Query should not be reported again within the capture interval");
+
+		diagnostics.setMinCaptureIntervalMillis(0);
+		diagnostics.createMonitor("SELECT 1", null, createConnections(captures)).run();
+		assertEquals(captures.get(), 3, "Query should be reported again after the capture interval");
+	}
+
+	@Test
+	public void testStoppedWhenFinished() {
+		AtomicInteger captures = new AtomicInteger();
+		PostgreImportDiagnostics.Monitor monitor = createDiagnostics().createMonitor("SELECT 1", null,
+			createConnections(captures));
+		PostgreRows rows = new PostgreRows(JdbcStubs.createStatement(2, 10, true, null));
+		rows.setDiagnosticsMonitor(monitor);
+
+		Iterator<PostgreRow> iterator = rows.iterator();
+		assertTrue(monitor.isRunning(), "Monitor should be started with the query");
+		int count = 0;
+		while (iterator.hasNext()) {
+			iterator.next();
+			count++;
+		}
+		assertEquals(count, 10);
+		assertFalse(monitor.isRunning(), "Monitor should be stopped when all rows have been read");
+		assertEquals(captures.get(), 0);
+		rows.close();
+	}
+
+	private PostgreImportDiagnostics createDiagnostics() {
+		PostgreImportDiagnostics diagnostics = new PostgreImportDiagnostics(100);
+		diagnostics.setWindowMillis(1000);
+		diagnostics.setTimingSampleRate(1);
+		return diagnostics;
+	}
+
+	/**
+	 * Creates factory of capturing connections counting requests, it fails so that the capture ends immediately.
+	 */
+	private Callable<Connection> createConnections(final AtomicInteger captures) {
+		return new Callable<Connection>() {
+			@Override
+			public Connection call() throws Exception {
+				captures.incrementAndGet();
+				throw new SQLException("not connected");
+			}
+		};
+	}
+
+}
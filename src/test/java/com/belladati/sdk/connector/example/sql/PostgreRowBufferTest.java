@@ -0,0 +1,78 @@
+package com.belladati.sdk.connector.example.sql;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.connector.RowApi;
+
+/**
+ * Tests to verify storage of rows in {@link PostgreRowBuffer}.
+ * @author Lubomir Elko
+ */
+public class PostgreRowBufferTest {
+
+	@Test
+	public void testValues() {
+		PostgreRowBuffer buffer = new PostgreRowBuffer(1024, 1024 * 1024);
+		String[] values = { "plain", null, "", "\u017Dlu\u0165ou\u010Dk\u00FD k\u016F\u0148", "\u20AC 10",
+			"\uD83D\uDE00 emoji" };
+		assertTrue(buffer.add(42, values));
+		assertTrue(buffer.add(43, new String[] { "second" }));
+
+		RowApi row = buffer.get(0);
+		assertEquals(row.getIndex(), 42);
+		assertEquals(row.getLength(), values.length);
+		assertEquals(row.getValues(), values);
+		assertNull(row.getValue(1));
+		assertEquals(row.getValue(5), values[5]);
+		assertEquals(row.getValue(6), "", "Value out of the row should be empty");
+		assertEquals(buffer.get(1).getValue(0), "second");
+		assertEquals(buffer.size(), 2);
+		buffer.close();
+	}
+
+	@Test
+	public void testCapacity() {
+		PostgreRowBuffer buffer = new PostgreRowBuffer(256, 1024);
+		int added = 0;
+		while (buffer.add(added, new String[] { "Value of row " + added, "Another value" })) {
+			added++;
+		}
+		assertTrue(added > 10, "Rows should fill all slabs");
+		assertEquals(buffer.getAllocatedBytes(), 1024);
+		assertEquals(buffer.get(added - 1).getValue(0), "Value of row " + (added - 1));
+
+		buffer.clear();
+		assertEquals(buffer.size(), 0);
+		assertTrue(buffer.add(0, new String[] { "reused" }), "Cleared slabs should be reused");
+		assertEquals(buffer.getAllocatedBytes(), 1024);
+		assertFalse(buffer.add(1, new String[] { new String(new char[400]) }), "Row larger than the buffer is refused");
+		buffer.close();
+
+		buffer = new PostgreRowBuffer(64, 4096);
+		String large = new String(new char[500]).replace('\0', 'x');
+		assertTrue(buffer.add(0, new String[] { large }), "Row larger than a slab should get its own slab");
+		assertEquals(buffer.get(0).getValue(0), large);
+		buffer.close();
+	}
+
+	@Test
+	public void testClosed() {
+		PostgreRowBuffer buffer = new PostgreRowBuffer(1024, 1024);
+		buffer.add(0, new String[] { "value" });
+		RowApi row = buffer.get(0);
+		buffer.close();
+		assertEquals(buffer.getAllocatedBytes(), 0);
+		try {
+			row.getValue(0);
+			throw new AssertionError("Freed memory must not be read");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.belladati.sdk.connector.example.sql;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.connector.example.JdbcStubs;
+import com.belladati.sdk.connector.example.RowMemoryBudget;
+
+/**
+ * Tests to verify cancellation, closing and splitting of {@link PostgreRows}.
+ * @author Lubomir Elko
+ */
+public class PostgreRowsTest {
+
+	@Test
+	public void testCancelBeforeExecution() throws Throwable {
+		final PostgreRows[] rows = new PostgreRows[1];
+		final boolean[] executed = new boolean[1];
+		PreparedStatement dataStatement = createStatement(new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("executeQuery".equals(method.getName())) {
+					executed[0] = true;
+				}
+				return null;
+			}
+		});
+		// cancel arrives while the count query runs, before the data query is executed
+		PreparedStatement sizeStatement = createStatement(new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("executeQuery".equals(method.getName())) {
+					rows[0].cancel();
+					return createResultSet();
+				}
+				return null;
+			}
+		});
+		rows[0] = new PostgreRows(dataStatement, sizeStatement, null);
+
+		assertFalse(rows[0].iterator().hasNext());
+		assertTrue(rows[0].isCancelled());
+		assertFalse(executed[0], "Cancelled query should not be executed");
+	}
+
+	@Test
+	public void testCancelDuringExecution() throws Throwable {
+		final PostgreRows[] rows = new PostgreRows[1];
+		final boolean[] statementCancelled = new boolean[1];
+		PreparedStatement dataStatement = createStatement(new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("executeQuery".equals(method.getName())) {
+					// cancel arrives from another thread while the query runs
+					rows[0].cancel();
+					return createResultSet();
+				} else if ("cancel".equals(method.getName())) {
+					statementCancelled[0] = true;
+				}
+				return null;
+			}
+		});
+		rows[0] = new PostgreRows(dataStatement);
+
+		assertFalse(rows[0].iterator().hasNext());
+		assertTrue(statementCancelled[0], "Running query should be cancelled");
+	}
+
+	@Test
+	public void testCloseFailure() throws Throwable {
+		final boolean[] closed = new boolean[1];
+		final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+			new Class<?>[] { Connection.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if ("commit".equals(method.getName())) {
+						throw new UnsupportedOperationException("commit");
+					} else if ("close".equals(method.getName())) {
+						closed[0] = true;
+					}
+					return "isClosed".equals(method.getName()) ? closed[0] : null;
+				}
+			});
+		PostgreRows rows = new PostgreRows(createStatement(new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return "getConnection".equals(method.getName()) ? connection : null;
+			}
+		}));
+		try {
+			rows.close();
+			throw new AssertionError("Failure of the close task should be reported");
+		} catch (IllegalStateException e) {
+			assertEquals(e.getCause().getClass(), UnsupportedOperationException.class);
+		}
+		assertTrue(rows.isClosed());
+		assertTrue(closed[0], "Connection should be closed even if commit fails");
+	}
+
+	@Test
+	public void testParallelBatches() throws Throwable {
+		PostgreRows rows = new PostgreRows(JdbcStubs.createStatement(3, 20000, false, null));
+		List<Integer> indexes = StreamSupport.stream(rows.spliterator(), true).map(new Function<PostgreRow, Integer>() {
+			@Override
+			public Integer apply(PostgreRow row) {
+				assertEquals(row.getValue(2), "Value of row " + row.getIndex() + " in column 3");
+				return row.getIndex();
+			}
+		}).collect(Collectors.toList());
+		assertEquals(indexes.size(), 20000);
+		for (int i = 0; i < indexes.size(); i++) {
+			assertEquals(indexes.get(i).intValue(), i + 1, "Parallel processing should keep order of rows");
+		}
+		rows.close();
+	}
+
+	@Test
+	public void testUnprocessedBatchFreed() throws Throwable {
+		PostgreRows rows = new PostgreRows(JdbcStubs.createStatement(3, 5000, false, null));
+		RowMemoryBudget.Account account = new RowMemoryBudget(64 * 1024 * 1024).open("failed import");
+		rows.setMemoryAccount(account, 100);
+		Spliterator<PostgreRow> batch = rows.spliterator().trySplit();
+		assertNotNull(batch);
+		assertTrue(batch.tryAdvance(new Consumer<PostgreRow>() {
+			@Override
+			public void accept(PostgreRow row) {
+				assertEquals(row.getIndex(), 1);
+			}
+		}));
+		assertTrue(account.getBytes() > 0, "Buffered batch should be accounted");
+
+		rows.close();
+		assertEquals(batch.estimateSize(), 0, "Unprocessed batch should be freed on close");
+		assertFalse(batch.tryAdvance(new Consumer<PostgreRow>() {
+			@Override
+			public void accept(PostgreRow row) {
+				throw new AssertionError("Freed batch should provide no rows");
+			}
+		}));
+	}
+
+	@Test
+	public void testBatchRowsValidUntilConsumed() throws Throwable {
+		PostgreRows rows = new PostgreRows(JdbcStubs.createStatement(3, 5000, false, null));
+		Spliterator<PostgreRow> batch = rows.spliterator().trySplit();
+		assertNotNull(batch);
+		final List<PostgreRow> kept = new ArrayList<PostgreRow>();
+		batch.forEachRemaining(new Consumer<PostgreRow>() {
+			@Override
+			public void accept(PostgreRow row) {
+				// the last row is readable too, the buffer is freed only after it has been processed
+				assertEquals(row.getValue(2), "Value of row " + row.getIndex() + " in column 3");
+				kept.add(row);
+			}
+		});
+		assertEquals(kept.size(), 1024);
+		assertEquals(kept.get(0).getIndex(), 1, "Index should stay available");
+		try {
+			kept.get(0).getValues();
+			fail("Row of a consumed batch should not be readable");
+		} catch (IllegalStateException e) {
+			// expected, the buffer of the batch has been freed
+		}
+		rows.close();
+	}
+
+	private PreparedStatement createStatement(InvocationHandler handler) {
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+			new Class<?>[] { PreparedStatement.class }, handler);
+	}
+
+	private ResultSet createResultSet() {
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+			new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if ("next".equals(method.getName())) {
+						return true;
+					}
+					return "getInt".equals(method.getName()) ? 1 : null;
+				}
+			});
+	}
+
+}
@@ -0,0 +1,148 @@
+package com.belladati.sdk.connector.example.sql;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.connector.example.JdbcStubs;
+
+/**
+ * Tests to verify session keys and settings applied by {@link PostgreSessionProfile}.
+ * @author Lubomir Elko
+ */
+public class PostgreSessionProfileTest {
+
+	@Test
+	public void testSessionKeyChanges() throws Throwable {
+		Set<String> keys = new HashSet<String>();
+		PostgreSessionProfile profile = PostgreSessionProfile.bulkImport();
+		keys.add(profile.getSessionKey());
+
+		profile.setReadOnly(false);
+		assertTrue(keys.add(profile.getSessionKey()), "Read-only flag should change the key");
+		profile.setDeferrable(false);
+		assertTrue(keys.add(profile.getSessionKey()), "Deferrable flag should change the key");
+		profile.setStatementTimeout(1000);
+		assertTrue(keys.add(profile.getSessionKey()), "Statement timeout should change the key");
+		profile.setLockTimeout(1000);
+		assertTrue(keys.add(profile.getSessionKey()), "Lock timeout should change the key");
+		profile.setWorkMem("128MB");
+		assertTrue(keys.add(profile.getSessionKey()), "Work memory should change the key");
+		profile.setJit(true);
+		assertTrue(keys.add(profile.getSessionKey()), "JIT flag should change the key");
+		profile.setApplicationName("Other");
+		assertTrue(keys.add(profile.getSessionKey()), "Application name should change the key");
+
+		String key = profile.getSessionKey();
+		profile.setFetchSize(10);
+		assertEquals(profile.getSessionKey(), key, "Fetch size is set on statements and should not change the key");
+		assertFalse(PostgreSessionProfile.preview().getSessionKey()
+			.equals(PostgreSessionProfile.validation().getSessionKey()));
+	}
+
+	@Test
+	public void testAppliedSettings() throws Throwable {
+		List<String> sql = new ArrayList<String>();
+		List<Object> values = new ArrayList<Object>();
+		PostgreSessionProfile.bulkImport().apply(createConnection(11, sql, values), new PostgreDialect());
+		assertEquals(sql.size(), 1, "All settings should be applied in one statement");
+		assertEquals(sql.get(0), "SELECT set_config('default_transaction_read_only', ?, false),"
+			+ " set_config('default_transaction_isolation', CASE WHEN pg_is_in_recovery()"
+			+ " THEN current_setting('default_transaction_isolation') ELSE ? END, false),"
+			+ " set_config('default_transaction_deferrable', ?, false), set_config('statement_timeout', ?, false),"
+			+ " set_config('work_mem', ?, false), set_config('application_name', ?, false)");
+		assertEquals(values.toString(), "[on, serializable, on, 0, 64MB, BellaDati connector import]");
+
+		sql.clear();
+		values.clear();
+		PostgreSessionProfile.preview().apply(createConnection(11, sql, values), new PostgreDialect());
+		assertTrue(sql.get(0).contains("set_config('jit', ?, false)"));
+		assertEquals(values.toString(), "[on, 60000, off, BellaDati connector preview]");
+
+		sql.clear();
+		values.clear();
+		PostgreSessionProfile.preview().apply(createConnection(10, sql, values), new PostgreDialect());
+		assertFalse(sql.get(0).contains("jit"), "JIT should not be set before PostgreSQL 11");
+
+		sql.clear();
+		new PostgreSessionProfile("defaults").apply(createConnection(11, sql, values), new PostgreDialect());
+		assertEquals(sql.size(), 0, "Profile without settings should not query the server");
+	}
+
+	@Test
+	public void testApplyFailure() throws Throwable {
+		final boolean[] attempted = new boolean[1];
+		final DatabaseMetaData metaData = createMetaData(11);
+		Connection connection = JdbcStubs.stub(Connection.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("prepareStatement".equals(method.getName())) {
+					attempted[0] = true;
+					throw new SQLException("permission denied");
+				}
+				return "getMetaData".equals(method.getName()) ? metaData : JdbcStubs.defaultValue(method);
+			}
+		});
+		// failure is logged only, the connection remains usable with server defaults
+		PostgreSessionProfile.validation().apply(connection, new PostgreDialect());
+		assertTrue(attempted[0]);
+	}
+
+	/**
+	 * Creates connection recording prepared SQL and bound values.
+	 */
+	private Connection createConnection(final int majorVersion, final List<String> sql, final List<Object> values) {
+		final DatabaseMetaData metaData = createMetaData(majorVersion);
+		final PreparedStatement statement = JdbcStubs.stub(PreparedStatement.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("setString".equals(method.getName())) {
+					assertEquals(args[0], values.size() + 1, "Values should be bound in order");
+					values.add(args[1]);
+				} else if ("executeQuery".equals(method.getName())) {
+					return JdbcStubs.stub(ResultSet.class, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							return JdbcStubs.defaultValue(method);
+						}
+					});
+				}
+				return JdbcStubs.defaultValue(method);
+			}
+		});
+		return JdbcStubs.stub(Connection.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("prepareStatement".equals(method.getName())) {
+					sql.add((String) args[0]);
+					return statement;
+				}
+				return "getMetaData".equals(method.getName()) ? metaData : JdbcStubs.defaultValue(method);
+			}
+		});
+	}
+
+	private DatabaseMetaData createMetaData(final int majorVersion) {
+		return JdbcStubs.stub(DatabaseMetaData.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return "getDatabaseMajorVersion".equals(method.getName()) ? majorVersion : JdbcStubs.defaultValue(method);
+			}
+		});
+	}
+
+}